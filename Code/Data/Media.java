@@ -1,5 +1,6 @@
 package Code.Data;
 import java.io.Serializable;
+import java.util.EnumSet;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -14,10 +15,9 @@ public abstract class Media implements Serializable {
     public final float rating;
 
     /** An enum of the different categories that movies and series can belong to
-     * <p> TODO: Maybe make this consist of flags in a bit field?
-     * An enum value is stored as an int, which is 4 bytes,
-     * while of 23 categories, 3 bytes are used,
-     * because 3 bytes contain 24 bits.
+     * <p> Media store their categories as flags in a bit field, see {@link #getBit()}.
+     * There are 23 categories, so they all fit in a single int,
+     * instead of an array of references to the enum values.
     */
     public static enum Category {
         Action, Adventure, Biography, Comedy , Crime, Drama, // Ignoring uppercase convention ¯\_(ツ)_/¯
@@ -57,6 +57,37 @@ public abstract class Media implements Serializable {
             return map.keySet();
         }
     
+        /** Returns the flag of this category in a bit field of categories.
+         * The flag is the bit at the index of the ordinal of the category.
+         * @return The flag of this category.
+         */
+        public int getBit() {
+            return 1 << ordinal();
+        }
+
+        /** Returns the bit field containing the flags of the given categories. See {@link #getBit()}.
+         * @param categories The categories.
+         * @return The bit field of the categories.
+         */
+        public static int toBits(Category... categories) {
+            int bits = 0;
+            for(Category category : categories)
+                bits |= category.getBit();
+            return bits;
+        }
+
+        /** Returns the categories whose flags are set in the given bit field. See {@link #getBit()}.
+         * @param bits The bit field of the categories.
+         * @return A new set of the categories.
+         */
+        public static EnumSet<Category> fromBits(int bits) {
+            EnumSet<Category> categories = EnumSet.noneOf(Category.class);
+            Category[] values = values();
+            for(; bits != 0; bits &= bits - 1)
+                categories.add(values[Integer.numberOfTrailingZeros(bits)]);
+            return categories;
+        }
+
         /** Returns the string representation of this category.
          * Some categories have a different string representation than their name.
          * For example, the category <code>SciFi</code> has the string representation <code>"Sci-fi"</code>.
@@ -67,25 +98,53 @@ public abstract class Media implements Serializable {
         }
     }
 
-    /** The categories this media belongs to */
-    public final Category[] categories;
+    /** The categories this media belongs to, as flags in a bit field. See {@link Category#getBit()}. */
+    public final int categories;
 
-    protected Media(String title, int releaseYear, Category[] categories, float rating) {
+    protected Media(String title, int releaseYear, int categories, float rating) {
         this.title = title;
         this.releaseYear = releaseYear;
         this.categories = categories;
         this.rating = rating;
     }
 
+    /** Returns the categories this media belongs to.
+     * @return A new set of the categories, in the order of the enum.
+     */
+    public EnumSet<Category> getCategories() {
+        return Category.fromBits(categories);
+    }
+
+    /** Returns whether this media belongs to the given category.
+     * @param category The category.
+     * @return Whether this media belongs to the category.
+     */
+    public boolean hasCategory(Category category) {
+        return (categories & category.getBit()) != 0;
+    }
+
     protected String getCategoriesString() {
-        return Stream.of(categories)
-                     .map(Category::toString)
-                     .collect(Collectors.joining(", "));
+        return getCategories().stream()
+                              .map(Category::toString)
+                              .collect(Collectors.joining(", "));
     }
 
     public abstract String toString();
 
-    public abstract int hashCode();
+    /** The cached hash code. Media is immutable, so it is only computed once. */
+    private transient int hash = 0;
+
+    /** Returns the hash code, which is computed by {@link #calcHashCode()} the first time it is needed.
+     * Media is hashed every time it is looked up, so the title is not hashed again every time.
+     */
+    public final int hashCode() {
+        if(hash == 0)
+            hash = calcHashCode();
+        return hash;
+    }
+
+    /** Computes the hash code of this media. See {@link #hashCode()}. */
+    protected abstract int calcHashCode();
 
     public abstract boolean equals(Object obj);    
 }
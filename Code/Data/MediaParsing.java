@@ -92,7 +92,7 @@ public class MediaParsing {
         int releaseYear = 0;
         boolean isEnded = false;
         int endYear = 0;
-        List<Movie.Category> categories = new ArrayList<>(4);
+        int categories = 0;
         float rating = 0;
         List<Integer> seasonLengths = null;
 
@@ -169,12 +169,12 @@ public class MediaParsing {
                 // If we haven't reached a semicolon or comma, continue.
                 if(!isSemicolon && c != ',') continue;
 
-                // Parse the category and add it to the list.
+                // Parse the category and add its flag to the categories.
                 String categoryString = string.substring(lastParsed, i).strip();
                 Optional<Media.Category> category = Media.Category.fromString(categoryString);
 
-                // If the category is present, add it to the list.
-                if(category.isPresent()) categories.add(category.get());
+                // If the category is present, add its flag.
+                if(category.isPresent()) categories |= category.get().getBit();
 
                 // If the category is not present, then it is invalid.
                 else throw new InvalidStringFormatException("Tried to parse Media, but could not parse category from '" + categoryString + "'.", string);
@@ -279,8 +279,8 @@ public class MediaParsing {
                                                    "but string contained more characters than expected.", string);
 
         // Create the media object and return it.
-        if(!knowItIsSerie) return new Movie(title, releaseYear, categories.toArray(Media.Category[]::new), rating);
-        else               return new Serie(title, releaseYear, isEnded, endYear, categories.toArray(Media.Category[]::new), rating,
+        if(!knowItIsSerie) return new Movie(title, releaseYear, categories, rating);
+        else               return new Serie(title, releaseYear, isEnded, endYear, categories, rating,
                                             seasonLengths.stream().mapToInt(i -> i).toArray());
     }
 
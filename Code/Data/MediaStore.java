@@ -0,0 +1,603 @@
+package Code.Data;
+
+import java.text.Collator;
+import java.text.ParseException;
+import java.text.RuleBasedCollator;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+import Code.Data.Media.Category;
+
+/** A collection of media, where every media is given a dense integer ID.
+ * <p> The IDs go from 0 up to {@link #capacity()}, so data about the media can be stored in arrays indexed by ID,
+ * instead of in maps from media, which would have to hash the media on every lookup.
+ * <p> IDs of removed media are reused by media added later, so the IDs stay dense.
+ * <i>Anything storing data by ID should therefore forget the ID when its media is removed.</i>
+ * <p> The media are not stored as objects, but column by column in arrays indexed by ID,
+ * like {@link #getReleaseYear(int)} and {@link #getRating(int)}.
+ * The titles and season lengths of all media are stored after each other in shared arrays,
+ * so a media takes up a few array slots instead of several objects.
+ * Searching and sorting can then scan the columns they need, without touching the rest.
+ * <p> Every title is also stored as a collation key, so titles are sorted in Danish alphabetical order
+ * by comparing bytes, see {@link #compareTitles(int, int)}.
+ * <p> Media objects are only created when they are asked for, see {@link #get(int)}.
+ */
+public class MediaStore extends AbstractCollection<Media> {
+
+    /** The kinds of media in {@link #kinds}. */
+    private static final byte FREE = 0, MOVIE = 1, SERIE = 2, ENDED_SERIE = 3;
+
+    /** The kind of the media with each ID. Removed media leave {@link #FREE}, until the ID is reused. */
+    private byte[] kinds = new byte[16];
+
+    /** The hash code of the media with each ID, so looking up media does not have to create them. */
+    private int[] hashes = new int[16];
+
+    private int[] releaseYears = new int[16];
+    private int[] endYears = new int[16];
+    private float[] ratings = new float[16];
+
+    /** The categories of the media with each ID, as flags in a bit field. See {@link Category#getBit()}. */
+    private int[] categoryMasks = new int[16];
+
+    /** Where the title of each media starts in {@link #titleChars}, and how long it is. */
+    private int[] titleStarts = new int[16];
+    private int[] titleLengths = new int[16];
+
+    /** Where the season lengths of each series start in {@link #seasonLengths}, and how many seasons there are. */
+    private int[] seasonStarts = new int[16];
+    private int[] seasonCounts = new int[16];
+
+    /** The titles of all media after each other. */
+    private char[] titleChars = new char[256];
+    private int titleEnd = 0;
+
+    /** Where the collation key of the title of each media starts in {@link #titleKeys}, and how long it is. */
+    private int[] keyStarts = new int[16];
+    private int[] keyLengths = new int[16];
+
+    /** The collation keys of all titles after each other. See {@link #toTitleKey(String)}. */
+    private byte[] titleKeys = new byte[1024];
+    private int keyEnd = 0;
+
+    /** Sorts titles in Danish alphabetical order, where upper and lower case letters are sorted together,
+     * and 'æ', 'ø' and 'å' come after 'z'. See {@link #createTitleCollator()}.
+     * <i>Only used to create collation keys, see {@link #titleCollators}.</i>
+     */
+    private static final Collator titleCollator = createTitleCollator();
+
+    /** A copy of the {@link #titleCollator} for each thread, since a collator locks itself while creating a key,
+     * and keys are created on several threads when media are sorted. See {@link #toTitleKey(String)}.
+     */
+    private static final ThreadLocal<Collator> titleCollators = ThreadLocal.withInitial(() -> (Collator) titleCollator.clone());
+
+    /** The season lengths of all series after each other. */
+    private int[] seasonLengths = new int[64];
+    private int seasonEnd = 0;
+
+    /** How many title characters are left unused by removed media. See {@link #compact()}. */
+    private int unusedTitleChars = 0;
+
+    /** Hash table from media to its ID, using linear probing.
+     * Every slot holds one more than an ID, so empty slots are 0.
+     */
+    private int[] table = new int[32];
+
+    /** The IDs of removed media, which are reused before new IDs are used. */
+    private int[] freeIds = new int[16];
+    private int freeCount = 0;
+
+    /** One more than the highest ID in use. */
+    private int capacity = 0;
+
+    private int size = 0;
+
+    /** Counts the modifications of the store, so anything depending on its contents can tell when they change. */
+    private int modifications = 0;
+
+    /** Creates an empty store. */
+    public MediaStore() {}
+
+    /** Creates a store containing all the given media.
+     * @param media The media to add.
+     */
+    public MediaStore(Collection<Media> media) {
+        addAll(media);
+    }
+
+    /** Adds the given media and gives it an ID, if it is not already in the store.
+     * @param media The media to add.
+     * @return Whether the media was added.
+     */
+    public boolean add(Media media) {
+        Objects.requireNonNull(media);
+        if(getId(media) >= 0)
+            return false;
+
+        int id = freeCount > 0 ? freeIds[--freeCount] : capacity++;
+        if(id == kinds.length)
+            grow(id * 2);
+
+        hashes[id] = media.hashCode();
+        releaseYears[id] = media.releaseYear;
+        ratings[id] = media.rating;
+
+        titleStarts[id] = titleEnd;
+        titleLengths[id] = media.title.length();
+        titleChars = ensureLength(titleChars, titleEnd + media.title.length());
+        media.title.getChars(0, media.title.length(), titleChars, titleEnd);
+        titleEnd += media.title.length();
+
+        byte[] key = toTitleKey(media.title);
+        keyStarts[id] = keyEnd;
+        keyLengths[id] = key.length;
+        titleKeys = ensureLength(titleKeys, keyEnd + key.length);
+        System.arraycopy(key, 0, titleKeys, keyEnd, key.length);
+        keyEnd += key.length;
+
+        categoryMasks[id] = media.categories;
+
+        if(media instanceof Serie serie) {
+            kinds[id] = serie.isEnded ? ENDED_SERIE : SERIE;
+            endYears[id] = serie.endYear;
+            seasonStarts[id] = seasonEnd;
+            seasonCounts[id] = serie.seasonLengths.length;
+            seasonLengths = ensureLength(seasonLengths, seasonEnd + serie.seasonLengths.length);
+            System.arraycopy(serie.seasonLengths, 0, seasonLengths, seasonEnd, serie.seasonLengths.length);
+            seasonEnd += serie.seasonLengths.length;
+        }
+        else {
+            kinds[id] = MOVIE;
+            endYears[id] = 0;
+            seasonCounts[id] = 0;
+        }
+
+        size++;
+        modifications++;
+        if(size * 2 > table.length)
+            rehash(table.length * 2);
+        insert(id);
+        return true;
+    }
+
+    /** Removes the given media, and frees its ID for reuse.
+     * @param media The media to remove.
+     * @return Whether the media was in the store.
+     */
+    public boolean remove(Object media) {
+        if(!(media instanceof Media))
+            return false;
+        int slot = findSlot((Media) media);
+        if(slot < 0)
+            return false;
+        removeAt(slot);
+        return true;
+    }
+
+    /** Removes the media with the given ID, and frees the ID for reuse.
+     * @param id The ID of the media to remove.
+     * @return Whether a media had the ID.
+     */
+    public boolean remove(int id) {
+        if(id < 0 || id >= capacity || kinds[id] == FREE)
+            return false;
+        removeAt(findSlot(id));
+        return true;
+    }
+
+    /** Removes every media in the given collection, by looking each of them up instead of going through every media in the store.
+     * @param media The media to remove.
+     * @return Whether any media was removed.
+     */
+    @Override
+    public boolean removeAll(Collection<?> media) {
+        boolean removed = false;
+        for(Object m : media)
+            removed |= remove(m);
+        return removed;
+    }
+
+    /** Removes every media accepted by the filter, by their IDs.
+     * @param filter Decides which media to remove.
+     * @return Whether any media was removed.
+     */
+    @Override
+    public boolean removeIf(Predicate<? super Media> filter) {
+        Objects.requireNonNull(filter);
+        boolean removed = false;
+        for(int id = 0; id < capacity; id++)
+            if(kinds[id] != FREE && filter.test(get(id)))
+                removed |= remove(id);
+        return removed;
+    }
+
+    /** Removes the media whose ID is in the slot, and frees the ID for reuse. */
+    private void removeAt(int slot) {
+        int id = table[slot] - 1;
+        delete(slot);
+        kinds[id] = FREE;
+        size--;
+        modifications++;
+
+        if(freeCount == freeIds.length)
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        freeIds[freeCount++] = id;
+
+        unusedTitleChars += titleLengths[id];
+        if(unusedTitleChars > 1024 && unusedTitleChars * 2 > titleEnd)
+            compact();
+    }
+
+    /** Returns the ID of the given media.
+     * @param media The media.
+     * @return The ID of the media, or {@code -1} if it is not in the store.
+     */
+    public int getId(Media media) {
+        int slot = findSlot(media);
+        return slot < 0 ? -1 : table[slot] - 1;
+    }
+
+    /** Creates the media with the given ID from the columns.
+     * <i>A new media object is created every time, which is equal to the media that was added.</i>
+     * @param id The ID. <i>Must be less than {@link #capacity()}.</i>
+     * @return The media, or {@code null} if no media has the ID.
+     */
+    public Media get(int id) {
+        if(kinds[id] == FREE)
+            return null;
+
+        if(kinds[id] == MOVIE)
+            return new Movie(getTitle(id), releaseYears[id], categoryMasks[id], ratings[id]);
+
+        int[] seasons = Arrays.copyOfRange(seasonLengths, seasonStarts[id], seasonStarts[id] + seasonCounts[id]);
+        return new Serie(getTitle(id), releaseYears[id], kinds[id] == ENDED_SERIE, endYears[id], categoryMasks[id], ratings[id], seasons);
+    }
+
+    /** Returns whether a media has the given ID.
+     * @param id The ID. <i>Must be less than {@link #capacity()}.</i>
+     * @return Whether the ID is in use.
+     */
+    public boolean hasId(int id) {
+        return kinds[id] != FREE;
+    }
+
+    /** Returns the title of the media with the given ID.
+     * @param id The ID of a media in the store.
+     * @return The title.
+     */
+    public String getTitle(int id) {
+        return new String(titleChars, titleStarts[id], titleLengths[id]);
+    }
+
+    /** Compares the titles of the media with the given IDs in Danish alphabetical order, like {@link #compareTitles(String, String)},
+     * but by comparing the bytes of their collation keys, which were created when the media were added.
+     * @param a The ID of a media in the store.
+     * @param b The ID of a media in the store.
+     * @return The comparison of the titles.
+     */
+    public int compareTitles(int a, int b) {
+        int comparison = Arrays.compareUnsigned(titleKeys, keyStarts[a], keyStarts[a] + keyLengths[a],
+                                                titleKeys, keyStarts[b], keyStarts[b] + keyLengths[b]);
+        if(comparison != 0)
+            return comparison;
+        return Arrays.compare(titleChars, titleStarts[a], titleStarts[a] + titleLengths[a],
+                              titleChars, titleStarts[b], titleStarts[b] + titleLengths[b]);
+    }
+
+    /** Compares the titles in Danish alphabetical order.
+     * Titles the collator sees as equal, for example titles only differing by ignored characters,
+     * are compared like {@link String#compareTo(String)}, so only equal titles are equal.
+     * <p><i> Creates the collation keys of both titles every time.
+     * When sorting, create the key of each title once with {@link #toTitleKey(String)}, and compare them with {@link #compareTitles(byte[], String, byte[], String)}.</i>
+     * @param a The first title.
+     * @param b The second title.
+     * @return The comparison of the titles.
+     */
+    public static int compareTitles(String a, String b) {
+        return compareTitles(toTitleKey(a), a, toTitleKey(b), b);
+    }
+
+    /** Compares the titles in Danish alphabetical order, like {@link #compareTitles(String, String)},
+     * by comparing the bytes of their collation keys.
+     * @param keyA The collation key of the first title. See {@link #toTitleKey(String)}.
+     * @param a The first title.
+     * @param keyB The collation key of the second title.
+     * @param b The second title.
+     * @return The comparison of the titles.
+     */
+    public static int compareTitles(byte[] keyA, String a, byte[] keyB, String b) {
+        int comparison = Arrays.compareUnsigned(keyA, keyB);
+        return comparison != 0 ? comparison : a.compareTo(b);
+    }
+
+    /** Creates the Danish collator, changed so spaces come before every letter instead of being ignored.
+     * Titles are then sorted word by word, so "A Place In The Sun" comes before "Alfred Hitchcock Presents".
+     */
+    private static Collator createTitleCollator() {
+        RuleBasedCollator danish = (RuleBasedCollator) Collator.getInstance(new Locale("da", "DK"));
+        try {
+            return new RuleBasedCollator(danish.getRules() + "& '\u0000' < ' '");
+        }
+        catch(ParseException exception) {
+            throw new IllegalStateException("The rules of the title collator could not be parsed.", exception);
+        }
+    }
+
+    /** Returns the collation key of the title, where comparing the unsigned bytes of two keys
+     * compares the titles like {@link #titleCollator}.
+     * <p> The characters of the key are stored in a single byte if they are below {@code 0xFF},
+     * and otherwise as {@code 0xFF} followed by their two bytes, which keeps the order of the characters.
+     * Most keys are then half as long as {@link java.text.CollationKey#toByteArray()}, which always uses two bytes.
+     * @param title The title.
+     * @return The collation key.
+     */
+    public static byte[] toTitleKey(String title) {
+        byte[] chars = titleCollators.get().getCollationKey(title).toByteArray();
+        byte[] key = new byte[chars.length / 2 * 3];
+        int length = 0;
+        for(int i = 0; i + 1 < chars.length; i += 2) {
+            int c = (chars[i] & 0xFF) << 8 | chars[i + 1] & 0xFF;
+            if(c < 0xFF)
+                key[length++] = (byte) c;
+            else {
+                key[length++] = (byte) 0xFF;
+                key[length++] = (byte) (c >>> 8);
+                key[length++] = (byte) c;
+            }
+        }
+        return Arrays.copyOf(key, length);
+    }
+
+    /** Returns the release year of the media with the given ID.
+     * @param id The ID of a media in the store.
+     * @return The release year.
+     */
+    public int getReleaseYear(int id) {
+        return releaseYears[id];
+    }
+
+    /** Returns the rating of the media with the given ID.
+     * @param id The ID of a media in the store.
+     * @return The rating.
+     */
+    public float getRating(int id) {
+        return ratings[id];
+    }
+
+    /** Returns the categories of the media with the given ID, as flags in a bit field. See {@link Category#getBit()}.
+     * @param id The ID of a media in the store.
+     * @return The category mask.
+     */
+    public int getCategoryMask(int id) {
+        return categoryMasks[id];
+    }
+
+    /** Returns the number of times media have been added to or removed from the store.
+     * If it has not changed, the store contains the same media with the same IDs.
+     * @return The modification count.
+     */
+    public int getModificationCount() {
+        return modifications;
+    }
+
+    /** Returns one more than the highest ID in use.
+     * Arrays indexed by ID should be at least this long.
+     * @return The upper bound of the IDs.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** Returns the IDs of all media in the store, in increasing order.
+     * @return A stream of the IDs.
+     */
+    public IntStream ids() {
+        return IntStream.range(0, capacity).filter(this::hasId);
+    }
+
+    public boolean contains(Object media) {
+        return media instanceof Media && findSlot((Media) media) >= 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(kinds, 0, capacity, FREE);
+        Arrays.fill(table, 0);
+        titleEnd = keyEnd = seasonEnd = unusedTitleChars = 0;
+        freeCount = 0;
+        capacity = 0;
+        size = 0;
+        modifications++;
+    }
+
+    /** Returns an iterator over the media, in order of their IDs.
+     * The media are created as they are iterated, see {@link #get(int)}.
+     * Removing through the iterator removes the media by its ID, see {@link #remove(int)}.
+     * <i>Modifying the store in other ways while iterating makes the iterator throw a {@link ConcurrentModificationException}.</i>
+     */
+    public Iterator<Media> iterator() {
+        return new Iterator<>() {
+            private int next = nextId(0);
+            private int last = -1;
+            private int expectedModifications = modifications;
+
+            public boolean hasNext() {
+                return next < capacity;
+            }
+
+            public Media next() {
+                if(modifications != expectedModifications)
+                    throw new ConcurrentModificationException();
+                if(next >= capacity)
+                    throw new NoSuchElementException();
+                last = next;
+                next = nextId(next + 1);
+                return get(last);
+            }
+
+            public void remove() {
+                if(last < 0)
+                    throw new IllegalStateException("The media was already removed, or the iteration has not started.");
+                if(modifications != expectedModifications)
+                    throw new ConcurrentModificationException();
+                MediaStore.this.remove(last);
+                last = -1;
+                expectedModifications = modifications;
+            }
+        };
+    }
+
+    /** Returns the first ID in use from the given ID, or {@link #capacity} if there is none. */
+    private int nextId(int from) {
+        while(from < capacity && kinds[from] == FREE)
+            from++;
+        return from;
+    }
+
+    /** Returns whether the media with the given ID is equal to the given media, by comparing the columns. */
+    private boolean equalsAt(int id, Media media) {
+        if(hashes[id] != media.hashCode()
+        || releaseYears[id] != media.releaseYear
+        || ratings[id] != media.rating
+        || titleLengths[id] != media.title.length()
+        || categoryMasks[id] != media.categories)
+            return false;
+
+        if(media instanceof Serie serie) {
+            if(kinds[id] != (serie.isEnded ? ENDED_SERIE : SERIE)
+            || endYears[id] != serie.endYear
+            || !Arrays.equals(seasonLengths, seasonStarts[id], seasonStarts[id] + seasonCounts[id],
+                              serie.seasonLengths, 0, serie.seasonLengths.length))
+                return false;
+        }
+        else if(kinds[id] != MOVIE || !(media instanceof Movie))
+            return false;
+
+        int start = titleStarts[id];
+        for(int i = 0; i < titleLengths[id]; i++)
+            if(titleChars[start + i] != media.title.charAt(i))
+                return false;
+        return true;
+    }
+
+    /** Returns the slot in the table where the hash code starts probing. */
+    private int homeSlot(int hash) {
+        return (hash ^ hash >>> 16) & table.length - 1;
+    }
+
+    /** Returns the slot in the table holding the ID of the given media, or {@code -1} if it is not in the store. */
+    private int findSlot(Media media) {
+        for(int slot = homeSlot(media.hashCode()); table[slot] != 0; slot = slot + 1 & table.length - 1)
+            if(equalsAt(table[slot] - 1, media))
+                return slot;
+        return -1;
+    }
+
+    /** Returns the slot of the ID. <i>The ID must be in use.</i> */
+    private int findSlot(int id) {
+        int slot = homeSlot(hashes[id]);
+        while(table[slot] != id + 1)
+            slot = slot + 1 & table.length - 1;
+        return slot;
+    }
+
+    /** Puts the ID in the first empty slot from its home slot. */
+    private void insert(int id) {
+        int slot = homeSlot(hashes[id]);
+        while(table[slot] != 0)
+            slot = slot + 1 & table.length - 1;
+        table[slot] = id + 1;
+    }
+
+    /** Empties the slot, and moves later IDs back so they can still be found without probing past an empty slot. */
+    private void delete(int slot) {
+        int mask = table.length - 1;
+        table[slot] = 0;
+        for(int next = slot + 1 & mask; table[next] != 0; next = next + 1 & mask) {
+            int home = homeSlot(hashes[table[next] - 1]);
+            // Moves the ID to the empty slot, if the empty slot is between its home slot and where it is now.
+            if((next - home & mask) >= (next - slot & mask)) {
+                table[slot] = table[next];
+                table[next] = 0;
+                slot = next;
+            }
+        }
+    }
+
+    private void rehash(int length) {
+        table = new int[length];
+        for(int id = 0; id < capacity; id++)
+            if(kinds[id] != FREE)
+                insert(id);
+    }
+
+    private void grow(int length) {
+        kinds = Arrays.copyOf(kinds, length);
+        hashes = Arrays.copyOf(hashes, length);
+        releaseYears = Arrays.copyOf(releaseYears, length);
+        endYears = Arrays.copyOf(endYears, length);
+        ratings = Arrays.copyOf(ratings, length);
+        categoryMasks = Arrays.copyOf(categoryMasks, length);
+        titleStarts = Arrays.copyOf(titleStarts, length);
+        titleLengths = Arrays.copyOf(titleLengths, length);
+        keyStarts = Arrays.copyOf(keyStarts, length);
+        keyLengths = Arrays.copyOf(keyLengths, length);
+        seasonStarts = Arrays.copyOf(seasonStarts, length);
+        seasonCounts = Arrays.copyOf(seasonCounts, length);
+    }
+
+    private static char[] ensureLength(char[] array, int length) {
+        return length <= array.length ? array : Arrays.copyOf(array, Math.max(length, array.length * 2));
+    }
+
+    private static byte[] ensureLength(byte[] array, int length) {
+        return length <= array.length ? array : Arrays.copyOf(array, Math.max(length, array.length * 2));
+    }
+
+    private static int[] ensureLength(int[] array, int length) {
+        return length <= array.length ? array : Arrays.copyOf(array, Math.max(length, array.length * 2));
+    }
+
+    /** Moves the titles, title keys and seasons of the media in the store together,
+     * leaving out the ones of removed media.
+     * Done when removed media leave more than half of the title characters unused.
+     */
+    private void compact() {
+        char[] newTitleChars = new char[Math.max(256, titleEnd - unusedTitleChars)];
+        byte[] newTitleKeys = new byte[titleKeys.length];
+        int[] newSeasonLengths = new int[seasonLengths.length];
+        titleEnd = keyEnd = seasonEnd = unusedTitleChars = 0;
+
+        for(int id = 0; id < capacity; id++) {
+            if(kinds[id] == FREE) continue;
+
+            System.arraycopy(titleChars, titleStarts[id], newTitleChars, titleEnd, titleLengths[id]);
+            titleStarts[id] = titleEnd;
+            titleEnd += titleLengths[id];
+
+            System.arraycopy(titleKeys, keyStarts[id], newTitleKeys, keyEnd, keyLengths[id]);
+            keyStarts[id] = keyEnd;
+            keyEnd += keyLengths[id];
+
+            System.arraycopy(seasonLengths, seasonStarts[id], newSeasonLengths, seasonEnd, seasonCounts[id]);
+            seasonStarts[id] = seasonEnd;
+            seasonEnd += seasonCounts[id];
+        }
+
+        titleChars = newTitleChars;
+        titleKeys = newTitleKeys;
+        seasonLengths = newSeasonLengths;
+    }
+
+}
@@ -1,29 +1,32 @@
 package Code.Data;
 
-import java.util.Arrays;
-
 /** A movie. */
 public class Movie extends Media {
 
     /**
      * @param title The title of the movie.
      * @param releaseYear The year the movie was released.
-     * @param categories The categories the movie belongs to.
+     * @param categories The categories the movie belongs to, as flags in a bit field. See {@link Category#getBit()}.
      * @param rating The rating of the movie.
      */
-    Movie(String title, int releaseYear, Category[] categories, float rating) {
+    Movie(String title, int releaseYear, int categories, float rating) {
         super(title, releaseYear, categories, rating);
     }
 
+    /** See {@link #Movie(String, int, int, float)}. */
+    Movie(String title, int releaseYear, Category[] categories, float rating) {
+        this(title, releaseYear, Category.toBits(categories), rating);
+    }
+
     public String toString() {
         return title + "; " + releaseYear + "; " + getCategoriesString() + "; " + rating + ";";
     }
 
-    public int hashCode() {
+    protected int calcHashCode() {
         int result = 123;
         result = 37 * result + title.hashCode();
         result = 37 * result + releaseYear;
-        result = 37 * result + Arrays.hashCode(categories);
+        result = 37 * result + categories;
         result = 37 * result + Float.floatToIntBits(rating);
         return result;
     }
@@ -38,7 +41,7 @@ public class Movie extends Media {
         Movie other = (Movie) obj;
         return title.equals(other.title) &&
                releaseYear == other.releaseYear &&
-               Arrays.equals(categories, other.categories) &&
+               categories == other.categories &&
                rating == other.rating;
     }
 }
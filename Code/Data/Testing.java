@@ -2,6 +2,10 @@ package Code.Data;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.IOException;
+import java.util.ConcurrentModificationException;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
 
 import org.junit.jupiter.api.*;
 
@@ -59,6 +63,18 @@ public class Testing {
     
         // Exception testing
 
+        @Test
+        void categoriesAsBits() throws InvalidStringFormatException {
+            Media movie = parseStringToMedia("The Third Man; 1949; Film-Noir, Mystery, Thriller; 8.2;");
+
+            assertEquals(Media.Category.FilmNoir.getBit() | Media.Category.Mystery.getBit() | Media.Category.Thriller.getBit(), movie.categories);
+            assertEquals(EnumSet.of(Media.Category.FilmNoir, Media.Category.Mystery, Media.Category.Thriller), movie.getCategories());
+            assertTrue(movie.hasCategory(Media.Category.Mystery));
+            assertFalse(movie.hasCategory(Media.Category.Drama));
+            // The categories are written in the order of the enum.
+            assertEquals("The Third Man; 1949; Mystery, Thriller, Film-Noir; 8.2;", movie.toString());
+        }
+
         @Test
         void invalidYear() {
             // Movie
@@ -216,4 +232,106 @@ public class Testing {
         }
 
     }
+
+    @Nested
+    class TestMediaStore {
+
+        Movie matrix = new Movie("The Matrix", 1999, new Media.Category[] {Media.Category.SciFi, Media.Category.Action}, 8.7f);
+        Serie office = new Serie("The Office", 2005, true, 2013, new Media.Category[] {Media.Category.Comedy}, 8.9f, new int[] {6, 22, 25, 19, 28, 26, 26, 24, 25});
+
+        @Test
+        void storedMediaEqualsAdded() {
+            MediaStore store = new MediaStore();
+            assertTrue(store.add(matrix));
+            assertTrue(store.add(office));
+            assertFalse(store.add(new Movie("The Matrix", 1999, new Media.Category[] {Media.Category.SciFi, Media.Category.Action}, 8.7f)));
+
+            assertEquals(matrix, store.get(store.getId(matrix)));
+            assertEquals(office, store.get(store.getId(office)));
+            assertEquals(matrix.toString(), store.get(store.getId(matrix)).toString());
+            assertEquals(2005, store.getReleaseYear(store.getId(office)));
+            assertEquals(1 << Media.Category.Comedy.ordinal(), store.getCategoryMask(store.getId(office)));
+        }
+
+        @Test
+        void titlesComparedInDanish() {
+            // Words are sorted one at a time, lower and upper case are sorted together, and \u00e6, \u00f8 and \u00e5 come after z, in that order.
+            String[] titles = {"A Place", "abe", "Aben", "The Office", "the Office", "Zorro", "\u00c6bler", "\u00f8l", "\u00c5en"};
+            MediaStore store = new MediaStore();
+            for(int i = titles.length - 1; i >= 0; i--)
+                store.add(new Movie(titles[i], 2000, new Media.Category[] {Media.Category.Drama}, 5f));
+
+            for(int i = 0; i < titles.length; i++) {
+                for(int j = 0; j < titles.length; j++) {
+                    int a = store.getId(new Movie(titles[i], 2000, new Media.Category[] {Media.Category.Drama}, 5f));
+                    int b = store.getId(new Movie(titles[j], 2000, new Media.Category[] {Media.Category.Drama}, 5f));
+                    assertEquals(Integer.signum(Integer.compare(i, j)), Integer.signum(store.compareTitles(a, b)));
+                    assertEquals(Integer.signum(Integer.compare(i, j)), Integer.signum(MediaStore.compareTitles(titles[i], titles[j])));
+                }
+            }
+        }
+
+        @Test
+        void removedIdsAreReused() {
+            MediaStore store = new MediaStore();
+            for(int i = 0; i < 1000; i++)
+                store.add(new Movie("Movie " + i, 2000, new Media.Category[] {Media.Category.Drama}, 5f));
+            store.add(matrix);
+
+            int id = store.getId(matrix);
+            assertTrue(store.remove(matrix));
+            assertEquals(-1, store.getId(matrix));
+            assertNull(store.get(id));
+
+            // Removing most of the media moves the rest together, which should not change them.
+            for(int i = 0; i < 900; i++)
+                assertTrue(store.remove(new Movie("Movie " + i, 2000, new Media.Category[] {Media.Category.Drama}, 5f)));
+            assertEquals(100, store.size());
+            assertEquals("Movie 950", store.getTitle(store.getId(new Movie("Movie 950", 2000, new Media.Category[] {Media.Category.Drama}, 5f))));
+            assertTrue(store.compareTitles(store.getId(new Movie("Movie 950", 2000, new Media.Category[] {Media.Category.Drama}, 5f)),
+                                           store.getId(new Movie("Movie 999", 2000, new Media.Category[] {Media.Category.Drama}, 5f))) < 0);
+
+            store.add(office);
+            assertTrue(store.getId(office) < 1000);
+            assertTrue(store.contains(office));
+            assertFalse(store.contains(matrix));
+        }
+
+        @Test
+        void removedThroughCollection() {
+            MediaStore store = new MediaStore();
+            for(int i = 0; i < 10; i++)
+                store.add(new Movie("Movie " + i, 2000 + i, new Media.Category[] {Media.Category.Drama}, 5f));
+            store.add(matrix);
+            store.add(office);
+
+            int matrixId = store.getId(matrix);
+            Iterator<Media> iterator = store.iterator();
+            assertThrows(IllegalStateException.class, iterator::remove);
+            while(iterator.hasNext())
+                if(iterator.next().equals(matrix))
+                    iterator.remove();
+            assertEquals(11, store.size());
+            assertFalse(store.contains(matrix));
+
+            assertTrue(store.removeIf(m -> m.releaseYear < 2005));
+            assertEquals(6, store.size());
+            assertTrue(store.removeAll(List.of(office, matrix)));
+            assertFalse(store.removeAll(List.of(office)));
+            assertTrue(store.retainAll(List.of(new Movie("Movie 7", 2007, new Media.Category[] {Media.Category.Drama}, 5f))));
+            assertEquals(1, store.size());
+            assertEquals(1, store.ids().count());
+
+            // The removed IDs are freed, so adding the media again reuses them.
+            store.add(matrix);
+            assertTrue(store.getId(matrix) <= matrixId);
+            assertEquals(12, store.capacity());
+
+            iterator = store.iterator();
+            iterator.next();
+            store.add(office);
+            assertThrows(ConcurrentModificationException.class, iterator::next);
+        }
+
+    }
 }
@@ -0,0 +1,119 @@
+package Code.Logic;
+import Code.Data.MediaStore;
+import Code.Data.Media.Category;
+
+/** The IDs of the media in each {@link Category}, stored in a compressed {@link IdBitmap}.
+ * Could be visualized like this:
+ * <p> {@code Array: Category -> (Bitmap: media ID)}.
+ * <p> Used to find the media accepted by the categories of a {@link MediaFilter} by combining bitmaps,
+ * without looking at the media. See {@link #findIds(MediaFilter)}.
+ * <p> The media are identified by their IDs in a {@link MediaStore}.
+ * <p><i> The index should be updated whenever the media library is modified.</i>
+ */
+public class CategoryIndex {
+
+    /** The IDs of the media in each category, indexed by ordinal. */
+    private final IdBitmap[] categories = new IdBitmap[Category.values().length];
+
+    /** The IDs of all the media, which the excluded categories are removed from when no others are given. */
+    private final IdBitmap all = new IdBitmap();
+
+    /** Creates an empty index. */
+    public CategoryIndex() {
+        for(int i = 0; i < categories.length; i++)
+            categories[i] = new IdBitmap();
+    }
+
+    /** Creates an index of all the media in the given store.
+     * @param store The media to add.
+     */
+    public CategoryIndex(MediaStore store) {
+        this();
+        store.ids().forEach(id -> add(id, store.getCategoryMask(id)));
+    }
+
+    /** Adds the media to the bitmaps of its categories.
+     * @param id The ID of the media.
+     * @param categoryMask The categories of the media. See {@link Code.Data.Media#categories}.
+     */
+    public void add(int id, int categoryMask) {
+        all.add(id);
+        for(int mask = categoryMask; mask != 0; mask &= mask - 1)
+            categories[Integer.numberOfTrailingZeros(mask)].add(id);
+    }
+
+    /** Removes the media from the bitmaps of its categories.
+     * @param id The ID of the media.
+     * @param categoryMask The categories of the media. See {@link Code.Data.Media#categories}.
+     */
+    public void remove(int id, int categoryMask) {
+        all.remove(id);
+        for(int mask = categoryMask; mask != 0; mask &= mask - 1)
+            categories[Integer.numberOfTrailingZeros(mask)].remove(id);
+    }
+
+    /** Clears the index. */
+    public void clear() {
+        all.clear();
+        for(IdBitmap category : categories)
+            category.clear();
+    }
+
+    /** Returns the number of media in the category, without looking at the media.
+     * @param category The category.
+     * @return The number of media.
+     */
+    public int count(Category category) {
+        return categories[category.ordinal()].cardinality();
+    }
+
+    /** Returns at least the number of media accepted by the categories of the filter, without combining the bitmaps.
+     * The media must be in the smallest of the required categories, and in one of the optional categories.
+     * @param filter The filter to use.
+     * @return The estimated number of media.
+     */
+    public int estimateCount(MediaFilter filter) {
+        int estimate = all.cardinality();
+        for(int mask = filter.allCategories; mask != 0; mask &= mask - 1)
+            estimate = Math.min(estimate, categories[Integer.numberOfTrailingZeros(mask)].cardinality());
+        if(filter.anyCategories != 0) {
+            int any = 0;
+            for(int mask = filter.anyCategories; mask != 0; mask &= mask - 1)
+                any += categories[Integer.numberOfTrailingZeros(mask)].cardinality();
+            estimate = Math.min(estimate, any);
+        }
+        return estimate;
+    }
+
+    /** Returns the IDs of the media accepted by the categories of the filter. The other parts of the filter are ignored.
+     * <p> The bitmaps of the required categories are intersected (AND), the bitmaps of the optional categories are
+     * joined (OR) and intersected with the result, and the bitmaps of the excluded categories are removed (NOT).
+     * @param filter The filter to use.
+     * @return The IDs of the media, or {@code null} if the filter does not filter by category.
+     * <i>Must not be modified, since it can be the bitmap of a category.</i>
+     */
+    IdBitmap findIds(MediaFilter filter) {
+        if(!filter.hasCategories())
+            return null;
+
+        IdBitmap ids = null;
+        for(int mask = filter.allCategories; mask != 0; mask &= mask - 1) {
+            IdBitmap category = categories[Integer.numberOfTrailingZeros(mask)];
+            ids = ids == null ? category : IdBitmap.and(ids, category);
+        }
+
+        if(filter.anyCategories != 0) {
+            IdBitmap any = new IdBitmap();
+            for(int mask = filter.anyCategories; mask != 0; mask &= mask - 1)
+                any = IdBitmap.or(any, categories[Integer.numberOfTrailingZeros(mask)]);
+            ids = ids == null ? any : IdBitmap.and(ids, any);
+        }
+
+        if(ids == null)
+            ids = all;
+        for(int mask = filter.noCategories; mask != 0; mask &= mask - 1)
+            ids = IdBitmap.andNot(ids, categories[Integer.numberOfTrailingZeros(mask)]);
+        return ids;
+    }
+
+}
@@ -0,0 +1,102 @@
+package Code.Logic;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import Code.Data.Media;
+import Code.Data.MediaStore;
+import Code.Data.Media.Category;
+
+/** The number of media in each category, decade and rating bucket, shown next to a list of results.
+ * <p> The media are counted in primitive counters while they are looked at to find the results,
+ * so counting them does not look at the media again. See {@link MediaLibrary#sortBySearchWithFacets(String, MediaFilter, int)}.
+ * <p> A media is counted once in every category it has, once in the decade it was released in,
+ * and once in the rating bucket of its rating, where bucket {@code n} counts the ratings from {@code n} up to {@code n + 1}.
+ */
+public final class Facets {
+
+    /** The number of rating buckets, where the last bucket only counts the highest rating of 10. */
+    public static final int ratingBuckets = 11;
+
+    /** The media found, and the facets of all the media looked at to find them. */
+    public static record Result(List<Media> media, Facets facets) {}
+
+    private final int[] categories = new int[Category.values().length];
+    private final int[] ratings = new int[ratingBuckets];
+
+    /** The counts of the decades from {@link #firstDecade}, which is the release year divided by 10. */
+    private int[] decades = new int[0];
+    private int firstDecade = 0;
+
+    private int total = 0;
+
+    /** Creates facets where every count is 0. */
+    public Facets() {}
+
+    /** Counts the media with the given ID.
+     * @param store The store containing the media.
+     * @param id The ID of the media.
+     */
+    void add(MediaStore store, int id) {
+        total++;
+        for(int mask = store.getCategoryMask(id); mask != 0; mask &= mask - 1)
+            categories[Integer.numberOfTrailingZeros(mask)]++;
+        ratings[Math.max(0, Math.min(ratingBuckets - 1, (int) store.getRating(id)))]++;
+
+        final int decade = Math.floorDiv(store.getReleaseYear(id), 10);
+        if(decades.length == 0)
+            firstDecade = decade;
+        if(decade < firstDecade) {
+            int[] grown = new int[decades.length + firstDecade - decade];
+            System.arraycopy(decades, 0, grown, firstDecade - decade, decades.length);
+            decades = grown;
+            firstDecade = decade;
+        }
+        else if(decade - firstDecade >= decades.length)
+            decades = Arrays.copyOf(decades, decade - firstDecade + 1);
+        decades[decade - firstDecade]++;
+    }
+
+    /** Returns the number of media counted.
+     * @return The number of media.
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /** Returns the number of media counted in the category.
+     * @param category The category.
+     * @return The number of media with the category.
+     */
+    public int getCount(Category category) {
+        return categories[category.ordinal()];
+    }
+
+    /** Returns the number of media counted in the decade.
+     * @param decade The first year of the decade, for example 1990 for the nineties.
+     * @return The number of media released in the decade.
+     */
+    public int getDecadeCount(int decade) {
+        int index = Math.floorDiv(decade, 10) - firstDecade;
+        return index >= 0 && index < decades.length ? decades[index] : 0;
+    }
+
+    /** Returns the decades with at least one media counted.
+     * @return The first year of each decade, in ascending order.
+     */
+    public int[] getDecades() {
+        return IntStream.range(0, decades.length)
+                        .filter(i -> decades[i] > 0)
+                        .map(i -> (firstDecade + i) * 10)
+                        .toArray();
+    }
+
+    /** Returns the number of media counted in the rating bucket.
+     * @param bucket The whole part of the rating, from 0 to {@code ratingBuckets - 1}.
+     * @return The number of media with a rating from the bucket up to the next bucket.
+     */
+    public int getRatingCount(int bucket) {
+        return bucket >= 0 && bucket < ratingBuckets ? ratings[bucket] : 0;
+    }
+
+}
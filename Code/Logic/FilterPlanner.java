@@ -0,0 +1,77 @@
+package Code.Logic;
+import Code.Data.MediaStore;
+import Code.Logic.MediaSorting.SortBy;
+
+/** Decides how to find the media accepted by a {@link MediaFilter}, by estimating how many media each part of the filter accepts. <ul>
+ * <p> The release year range and the rating range are counted exactly by binary search in the {@link SortIndex}.
+ * <p> The categories are estimated from the sizes of their bitmaps in the {@link CategoryIndex}, without combining them. </ul>
+ * <p> The part accepting the fewest media is used to find the candidates, and the rest of the filter is tested on each of them,
+ * so a narrow part of the filter keeps the wide parts from being looked at.
+ */
+final class FilterPlanner {
+
+    /** This class only contains static methods. */
+    private FilterPlanner() {}
+
+    /** An enum expressing which part of the filter the candidates are found by. <ul>
+     * <p> {@link #ALL} looks at every media, since the filter accepts every media.
+     * <p> {@link #RELEASE_YEAR} looks at the media in the release year range.
+     * <p> {@link #RATING} looks at the media in the rating range.
+     * <p> {@link #CATEGORIES} combines the bitmaps of the categories. </ul>
+     */
+    static enum Source {
+        /** Every media. */
+        ALL,
+        /** The media in the release year range. */
+        RELEASE_YEAR,
+        /** The media in the rating range. */
+        RATING,
+        /** The media in the categories. */
+        CATEGORIES,
+    }
+
+    /** The chosen part of a filter, and the estimated number of candidates it finds. */
+    static record Plan(Source source, int estimate) {}
+
+    /** Chooses the part of the filter accepting the fewest media.
+     * <i>Every source but {@link Source#ALL} finds fewer media than the whole store, so a filter only
+     * excluding categories or only combining many categories looks at every media, and still tests each of them.</i>
+     * @param store The media to filter.
+     * @param sortIndex The sort index of the media.
+     * @param categoryIndex The category index of the media.
+     * @param filter The filter to use.
+     * @return The plan.
+     */
+    static Plan choose(MediaStore store, SortIndex sortIndex, CategoryIndex categoryIndex, MediaFilter filter) {
+        Plan best = new Plan(Source.ALL, store.size());
+        if(filter.hasYearRange())
+            best = cheaper(best, new Plan(Source.RELEASE_YEAR, sortIndex.countRange(filter, SortBy.RELEASE_YEAR)));
+        if(filter.hasRatingRange())
+            best = cheaper(best, new Plan(Source.RATING, sortIndex.countRange(filter, SortBy.RATING)));
+        if(filter.hasCategories())
+            best = cheaper(best, new Plan(Source.CATEGORIES, categoryIndex.estimateCount(filter)));
+        return best;
+    }
+
+    private static Plan cheaper(Plan a, Plan b) {
+        return b.estimate() < a.estimate() ? b : a;
+    }
+
+    /** Returns the IDs of the media accepted by the filter, found by the part of the filter chosen by
+     * {@link #choose(MediaStore, SortIndex, CategoryIndex, MediaFilter)}.
+     * @param store The media to filter.
+     * @param sortIndex The sort index of the media.
+     * @param categoryIndex The category index of the media.
+     * @param filter The filter to use.
+     * @return The IDs of the accepted media, in no particular order.
+     */
+    static int[] findIds(MediaStore store, SortIndex sortIndex, CategoryIndex categoryIndex, MediaFilter filter) {
+        return switch (choose(store, sortIndex, categoryIndex, filter).source()) {
+            case ALL -> filter.acceptsAll() ? store.ids().toArray() : store.ids().filter(id -> filter.test(store, id)).toArray();
+            case RELEASE_YEAR -> sortIndex.findIds(filter, SortBy.RELEASE_YEAR);
+            case RATING -> sortIndex.findIds(filter, SortBy.RATING);
+            case CATEGORIES -> categoryIndex.findIds(filter).stream().filter(id -> filter.test(store, id)).toArray();
+        };
+    }
+
+}
@@ -0,0 +1,387 @@
+package Code.Logic;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/** A compressed set of media IDs, split into containers of 65536 IDs like a Roaring bitmap.
+ * Could be visualized like this:
+ * <p> {@code Sorted array: high 16 bits of the ID -> (Container: low 16 bits of the IDs)}.
+ * <p> A container with few IDs stores them in a sorted array,
+ * and a container with more than {@link #arrayLimit} IDs stores them as bits, so no container takes more than 8 KB.
+ * <p> Sets are combined container by container, see {@link #and(IdBitmap, IdBitmap)}, {@link #or(IdBitmap, IdBitmap)}
+ * and {@link #andNot(IdBitmap, IdBitmap)}, which return new sets and leave the given sets as they are.
+ */
+public final class IdBitmap {
+
+    /** The most IDs a container stores in an array. More IDs than this take less space as bits. */
+    private static final int arrayLimit = 4096;
+
+    /** The number of longs holding the bits of a container. */
+    private static final int wordCount = (1 << 16) / 64;
+
+    private static final class Container {
+        /** The low 16 bits of the IDs, sorted, or {@code null} if the IDs are stored as bits. */
+        char[] values;
+        /** The bits of the IDs, or {@code null} if the IDs are stored in an array. */
+        long[] words;
+        int count;
+
+        Container(char[] values, int count) {
+            this.values = values;
+            this.count = count;
+        }
+
+        Container(long[] words, int count) {
+            this.words = words;
+            this.count = count;
+        }
+
+        /** Returns a container with the IDs of the bits, stored in an array if there are few of them. */
+        static Container fromWords(long[] words) {
+            int count = 0;
+            for(long word : words)
+                count += Long.bitCount(word);
+            if(count > arrayLimit)
+                return new Container(words, count);
+
+            char[] values = new char[count];
+            int i = 0;
+            for(int w = 0; w < words.length; w++)
+                for(long word = words[w]; word != 0; word &= word - 1)
+                    values[i++] = (char) (w * 64 + Long.numberOfTrailingZeros(word));
+            return new Container(values, count);
+        }
+
+        /** Returns a copy of the bits of the IDs. */
+        long[] toWords() {
+            if(words != null)
+                return words.clone();
+            long[] bits = new long[wordCount];
+            for(int i = 0; i < count; i++)
+                bits[values[i] >>> 6] |= 1L << values[i];
+            return bits;
+        }
+
+        Container copy() {
+            return words != null ? new Container(words.clone(), count) : new Container(Arrays.copyOf(values, count), count);
+        }
+
+        boolean contains(char value) {
+            if(words != null)
+                return (words[value >>> 6] & 1L << value) != 0;
+            return Arrays.binarySearch(values, 0, count, value) >= 0;
+        }
+
+        /** Adds the value, and returns whether it was not there already. */
+        boolean add(char value) {
+            if(words != null) {
+                long bit = 1L << value;
+                if((words[value >>> 6] & bit) != 0)
+                    return false;
+                words[value >>> 6] |= bit;
+                count++;
+                return true;
+            }
+
+            int index = Arrays.binarySearch(values, 0, count, value);
+            if(index >= 0)
+                return false;
+            if(count == arrayLimit) {
+                words = toWords();
+                values = null;
+                return add(value);
+            }
+
+            index = -index - 1;
+            if(count == values.length)
+                values = Arrays.copyOf(values, Math.min(arrayLimit, Math.max(4, count * 2)));
+            System.arraycopy(values, index, values, index + 1, count - index);
+            values[index] = value;
+            count++;
+            return true;
+        }
+
+        /** Removes the value, and returns whether it was there. */
+        boolean remove(char value) {
+            if(words != null) {
+                long bit = 1L << value;
+                if((words[value >>> 6] & bit) == 0)
+                    return false;
+                words[value >>> 6] &= ~bit;
+                if(--count == arrayLimit) {
+                    Container array = fromWords(words);
+                    values = array.values;
+                    words = null;
+                }
+                return true;
+            }
+
+            int index = Arrays.binarySearch(values, 0, count, value);
+            if(index < 0)
+                return false;
+            System.arraycopy(values, index + 1, values, index, count - index - 1);
+            count--;
+            return true;
+        }
+
+        void forEach(int high, IntConsumer action) {
+            if(words != null) {
+                for(int w = 0; w < words.length; w++)
+                    for(long word = words[w]; word != 0; word &= word - 1)
+                        action.accept(high | w * 64 + Long.numberOfTrailingZeros(word));
+            }
+            else {
+                for(int i = 0; i < count; i++)
+                    action.accept(high | values[i]);
+            }
+        }
+
+        static Container and(Container a, Container b) {
+            if(a.words != null && b.words != null) {
+                long[] words = new long[wordCount];
+                for(int w = 0; w < wordCount; w++)
+                    words[w] = a.words[w] & b.words[w];
+                return fromWords(words);
+            }
+            // At least one of them is an array, so the result is never larger than that array.
+            Container array = a.words == null ? a : b, other = array == a ? b : a;
+            char[] values = new char[array.count];
+            int count = 0;
+            for(int i = 0; i < array.count; i++)
+                if(other.contains(array.values[i]))
+                    values[count++] = array.values[i];
+            return new Container(values, count);
+        }
+
+        static Container or(Container a, Container b) {
+            if(a.words == null && b.words == null && a.count + b.count <= arrayLimit) {
+                char[] values = new char[a.count + b.count];
+                int i = 0, j = 0, count = 0;
+                while(i < a.count && j < b.count) {
+                    if(a.values[i] < b.values[j]) values[count++] = a.values[i++];
+                    else if(a.values[i] > b.values[j]) values[count++] = b.values[j++];
+                    else { values[count++] = a.values[i++]; j++; }
+                }
+                while(i < a.count) values[count++] = a.values[i++];
+                while(j < b.count) values[count++] = b.values[j++];
+                return new Container(values, count);
+            }
+            long[] words = a.toWords();
+            if(b.words != null) {
+                for(int w = 0; w < wordCount; w++)
+                    words[w] |= b.words[w];
+            }
+            else {
+                for(int i = 0; i < b.count; i++)
+                    words[b.values[i] >>> 6] |= 1L << b.values[i];
+            }
+            return fromWords(words);
+        }
+
+        static Container andNot(Container a, Container b) {
+            if(a.words == null) {
+                char[] values = new char[a.count];
+                int count = 0;
+                for(int i = 0; i < a.count; i++)
+                    if(!b.contains(a.values[i]))
+                        values[count++] = a.values[i];
+                return new Container(values, count);
+            }
+            long[] words = a.words.clone();
+            if(b.words != null) {
+                for(int w = 0; w < wordCount; w++)
+                    words[w] &= ~b.words[w];
+            }
+            else {
+                for(int i = 0; i < b.count; i++)
+                    words[b.values[i] >>> 6] &= ~(1L << b.values[i]);
+            }
+            return fromWords(words);
+        }
+    }
+
+    /** The high 16 bits of the IDs of each container, sorted. */
+    private int[] keys = new int[0];
+    private Container[] containers = new Container[0];
+    /** The number of containers. */
+    private int size = 0;
+
+    /** Creates an empty set. */
+    public IdBitmap() {}
+
+    /** Creates a set of the given containers, skipping empty ones. */
+    private IdBitmap(int[] keys, Container[] containers, int size) {
+        for(int i = 0; i < size; i++) {
+            if(containers[i].count == 0) continue;
+            keys[this.size] = keys[i];
+            containers[this.size++] = containers[i];
+        }
+        this.keys = keys;
+        this.containers = containers;
+    }
+
+    /** Returns the index of the container with the key, or {@code -(insertion point) - 1}. */
+    private int findContainer(int key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    /** Adds the ID to the set.
+     * @param id The ID to add. <i>Must not be negative.</i>
+     * @return Whether the ID was not in the set already.
+     */
+    public boolean add(int id) {
+        int index = findContainer(id >>> 16);
+        if(index < 0) {
+            index = -index - 1;
+            if(size == keys.length) {
+                keys = Arrays.copyOf(keys, Math.max(4, size * 2));
+                containers = Arrays.copyOf(containers, keys.length);
+            }
+            System.arraycopy(keys, index, keys, index + 1, size - index);
+            System.arraycopy(containers, index, containers, index + 1, size - index);
+            keys[index] = id >>> 16;
+            containers[index] = new Container(new char[4], 0);
+            size++;
+        }
+        return containers[index].add((char) id);
+    }
+
+    /** Removes the ID from the set.
+     * @param id The ID to remove.
+     * @return Whether the ID was in the set.
+     */
+    public boolean remove(int id) {
+        int index = findContainer(id >>> 16);
+        if(index < 0 || !containers[index].remove((char) id))
+            return false;
+        if(containers[index].count == 0) {
+            System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+            System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+            containers[--size] = null;
+        }
+        return true;
+    }
+
+    /** Returns whether the ID is in the set.
+     * @param id The ID to look for.
+     * @return Whether the set contains the ID.
+     */
+    public boolean contains(int id) {
+        int index = findContainer(id >>> 16);
+        return index >= 0 && containers[index].contains((char) id);
+    }
+
+    /** Returns the number of IDs in the set, without looking at the IDs.
+     * @return The number of IDs.
+     */
+    public int cardinality() {
+        int cardinality = 0;
+        for(int i = 0; i < size; i++)
+            cardinality += containers[i].count;
+        return cardinality;
+    }
+
+    /** Removes all the IDs from the set. */
+    public void clear() {
+        keys = new int[0];
+        containers = new Container[0];
+        size = 0;
+    }
+
+    /** Returns a copy of the set, which can be modified without modifying this set.
+     * @return The copy.
+     */
+    public IdBitmap copy() {
+        Container[] copies = new Container[size];
+        for(int i = 0; i < size; i++)
+            copies[i] = containers[i].copy();
+        return new IdBitmap(Arrays.copyOf(keys, size), copies, size);
+    }
+
+    /** Calls the action with every ID in the set, in ascending order.
+     * @param action The action to call.
+     */
+    public void forEach(IntConsumer action) {
+        for(int i = 0; i < size; i++)
+            containers[i].forEach(keys[i] << 16, action);
+    }
+
+    /** Returns the IDs in the set, in ascending order.
+     * @return A stream of the IDs.
+     */
+    public IntStream stream() {
+        IntStream.Builder ids = IntStream.builder();
+        forEach(ids::add);
+        return ids.build();
+    }
+
+    /** Returns the IDs that are in both sets.
+     * Only the containers of the keys in both sets are combined.
+     * @param a The first set.
+     * @param b The second set.
+     * @return A new set.
+     */
+    public static IdBitmap and(IdBitmap a, IdBitmap b) {
+        int capacity = Math.min(a.size, b.size);
+        int[] keys = new int[capacity];
+        Container[] containers = new Container[capacity];
+        int i = 0, j = 0, size = 0;
+        while(i < a.size && j < b.size) {
+            if(a.keys[i] < b.keys[j]) i++;
+            else if(a.keys[i] > b.keys[j]) j++;
+            else {
+                keys[size] = a.keys[i];
+                containers[size++] = Container.and(a.containers[i++], b.containers[j++]);
+            }
+        }
+        return new IdBitmap(keys, containers, size);
+    }
+
+    /** Returns the IDs that are in either set.
+     * @param a The first set.
+     * @param b The second set.
+     * @return A new set.
+     */
+    public static IdBitmap or(IdBitmap a, IdBitmap b) {
+        int capacity = a.size + b.size;
+        int[] keys = new int[capacity];
+        Container[] containers = new Container[capacity];
+        int i = 0, j = 0, size = 0;
+        while(i < a.size || j < b.size) {
+            if(j == b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+                keys[size] = a.keys[i];
+                containers[size++] = a.containers[i++].copy();
+            }
+            else if(i == a.size || a.keys[i] > b.keys[j]) {
+                keys[size] = b.keys[j];
+                containers[size++] = b.containers[j++].copy();
+            }
+            else {
+                keys[size] = a.keys[i];
+                containers[size++] = Container.or(a.containers[i++], b.containers[j++]);
+            }
+        }
+        return new IdBitmap(keys, containers, size);
+    }
+
+    /** Returns the IDs that are in the first set, but not in the second set.
+     * @param a The set to take the IDs from.
+     * @param b The set of the IDs to leave out.
+     * @return A new set.
+     */
+    public static IdBitmap andNot(IdBitmap a, IdBitmap b) {
+        int[] keys = new int[a.size];
+        Container[] containers = new Container[a.size];
+        int j = 0;
+        for(int i = 0; i < a.size; i++) {
+            while(j < b.size && b.keys[j] < a.keys[i])
+                j++;
+            keys[i] = a.keys[i];
+            containers[i] = j < b.size && b.keys[j] == a.keys[i]
+                ? Container.andNot(a.containers[i], b.containers[j])
+                : a.containers[i].copy();
+        }
+        return new IdBitmap(keys, containers, a.size);
+    }
+
+}
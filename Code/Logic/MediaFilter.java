@@ -0,0 +1,125 @@
+package Code.Logic;
+import Code.Data.MediaStore;
+import Code.Data.Media.Category;
+
+/** A filter of media by their release year, rating and categories. <ul>
+ * <p> Use {@link #all} for a filter that accepts every media.
+ * <p> Use {@link #releasedBetween(int, int)} to only accept media released in a range of years.
+ * <p> Use {@link #ratedBetween(float, float)} to only accept media rated in a range.
+ * <p> Use {@link #withCategories(Category...)}, {@link #withAnyCategory(Category...)} and {@link #withoutCategories(Category...)}
+ * to only accept media with all, any or none of some categories. </ul>
+ * <p> Filters cannot be modified, so every method returns a new filter.
+ * For example, dramas from the nineties rated above 8 are found by
+ * {@code MediaFilter.all.withCategories(Category.Drama).releasedBetween(1990, 1999).ratedBetween(8, 10)}.
+ * <p> The media are found in the range or the categories accepting the fewest media, see {@link FilterPlanner},
+ * without looking at the media outside them.
+ */
+public final class MediaFilter {
+
+    /** The filter that accepts every media. */
+    public static final MediaFilter all = new MediaFilter(Integer.MIN_VALUE, Integer.MAX_VALUE, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY, 0, 0, 0);
+
+    /** The first and last release year accepted. */
+    final int fromYear, toYear;
+
+    /** The lowest and highest rating accepted. */
+    final float minRating, maxRating;
+
+    /** The categories the media must have all of, any of, and none of. See {@link Code.Data.Media#categories}. */
+    final int allCategories, anyCategories, noCategories;
+
+    private MediaFilter(int fromYear, int toYear, float minRating, float maxRating, int allCategories, int anyCategories, int noCategories) {
+        this.fromYear = fromYear;
+        this.toYear = toYear;
+        this.minRating = minRating;
+        this.maxRating = maxRating;
+        this.allCategories = allCategories;
+        this.anyCategories = anyCategories;
+        this.noCategories = noCategories;
+    }
+
+    /** Returns a filter that also only accepts media released in the given years.
+     * @param fromYear The first release year, inclusive.
+     * @param toYear The last release year, inclusive.
+     * @return The new filter.
+     * @throws IllegalArgumentException If the first year is after the last year.
+     */
+    public MediaFilter releasedBetween(int fromYear, int toYear) {
+        if(fromYear > toYear)
+            throw new IllegalArgumentException("The first year must not be after the last year, but were " + fromYear + " and " + toYear + ".");
+        return new MediaFilter(fromYear, toYear, minRating, maxRating, allCategories, anyCategories, noCategories);
+    }
+
+    /** Returns a filter that also only accepts media with a rating in the given range.
+     * @param minRating The lowest rating, inclusive.
+     * @param maxRating The highest rating, inclusive.
+     * @return The new filter.
+     * @throws IllegalArgumentException If the lowest rating is above the highest rating.
+     */
+    public MediaFilter ratedBetween(float minRating, float maxRating) {
+        if(!(minRating <= maxRating))
+            throw new IllegalArgumentException("The lowest rating must not be above the highest rating, but were " + minRating + " and " + maxRating + ".");
+        return new MediaFilter(fromYear, toYear, minRating, maxRating, allCategories, anyCategories, noCategories);
+    }
+
+    /** Returns a filter that also only accepts media with all of the given categories.
+     * @param categories The categories the media must have.
+     * @return The new filter.
+     */
+    public MediaFilter withCategories(Category... categories) {
+        return new MediaFilter(fromYear, toYear, minRating, maxRating, allCategories | Category.toBits(categories), anyCategories, noCategories);
+    }
+
+    /** Returns a filter that also only accepts media with at least one of the given categories.
+     * <i>The categories are added to the categories given by earlier calls, so the media must have at least one of all the categories given.</i>
+     * @param categories The categories the media must have one of.
+     * @return The new filter.
+     */
+    public MediaFilter withAnyCategory(Category... categories) {
+        return new MediaFilter(fromYear, toYear, minRating, maxRating, allCategories, anyCategories | Category.toBits(categories), noCategories);
+    }
+
+    /** Returns a filter that also only accepts media with none of the given categories.
+     * @param categories The categories the media must not have.
+     * @return The new filter.
+     */
+    public MediaFilter withoutCategories(Category... categories) {
+        return new MediaFilter(fromYear, toYear, minRating, maxRating, allCategories, anyCategories, noCategories | Category.toBits(categories));
+    }
+
+    /** Returns whether the filter only accepts some of the release years. */
+    boolean hasYearRange() {
+        return fromYear != Integer.MIN_VALUE || toYear != Integer.MAX_VALUE;
+    }
+
+    /** Returns whether the filter only accepts some of the ratings. */
+    boolean hasRatingRange() {
+        return minRating != Float.NEGATIVE_INFINITY || maxRating != Float.POSITIVE_INFINITY;
+    }
+
+    /** Returns whether the filter only accepts some of the categories. */
+    boolean hasCategories() {
+        return (allCategories | anyCategories | noCategories) != 0;
+    }
+
+    /** Returns whether the filter accepts every media. */
+    boolean acceptsAll() {
+        return !hasYearRange() && !hasRatingRange() && !hasCategories();
+    }
+
+    /** Returns whether the filter accepts the media with the given ID.
+     * @param store The store containing the media.
+     * @param id The ID of the media.
+     * @return Whether the media is accepted.
+     */
+    boolean test(MediaStore store, int id) {
+        final int year = store.getReleaseYear(id);
+        final float rating = store.getRating(id);
+        final int categories = store.getCategoryMask(id);
+        return year >= fromYear && year <= toYear && rating >= minRating && rating <= maxRating
+            && (categories & allCategories) == allCategories
+            && (anyCategories == 0 || (categories & anyCategories) != 0)
+            && (categories & noCategories) == 0;
+    }
+
+}
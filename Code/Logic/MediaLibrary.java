@@ -1,33 +1,92 @@
 package Code.Logic;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import Code.Data.MediaParsing;
-import Code.Data.MediaSet;
+import Code.Data.MediaStore;
 import Code.Data.MediaParsing.InvalidStringFormatException;
 import Code.Data.FileSerialization;
 import Code.Data.Media;
 
 /** A class that represents a library of media. <ul>
  * <p> Use {@link #readFiles(String, String)} to read the media from the given files.
- * <p> Use {@link #getMediaSet()} to get the library of media.
+ * <p> Use {@link #getMediaStore()} to get the library of media.
  * <p> Use {@link #search(String)} to search for media.
+ * <p> Use {@link #suggest(String, int, Suggestions)} to suggest media while a title is being typed.
  * <p> Use {@link #add(Media)} to add media to the library.
  * <p> Use {@link #remove(Media)} to remove media from the library. </ul>
+ * <p> Searching and sorting is safe from multiple threads at the same time,
+ * but the library must not be modified while it is being searched.
+ * Modifying the library updates the cached search results in place, see {@link MediaSorting.SearchCache},
+ * so a library shared between threads must be modified while holding an exclusive lock that every search also takes,
+ * for example the write lock of a {@link java.util.concurrent.locks.ReadWriteLock} whose read lock is held by the searches.
  */
 public class MediaLibrary {
 
-    private MediaSet library = null;
+    private MediaStore library = new MediaStore();
+    private TitleIndex titleIndex = new TitleIndex();
+    private TitleTrie titleTrie = new TitleTrie(library);
+    private TitleVocabulary titleVocabulary = new TitleVocabulary();
+    private SortIndex sortIndex = new SortIndex(library);
+    private CategoryIndex categoryIndex = new CategoryIndex(library);
     private MediaSorting.SearchCache searchCache = new MediaSorting.SearchCache();
+    /** Whether the weight of the search cache follows the size of the library. See {@link MediaSorting.SearchCache#defaultMaxWeight(int)}. */
+    private boolean fitSearchCache = true;
 
-    /** Creates an empty media library.*/
+    /** The threads running asynchronous searches, shared by every library.
+     * The threads are daemons, so they do not keep the program running.
+     */
+    private static final ExecutorService searchExecutor =
+        Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "media-search");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    /** An asynchronous search, identified by its lowercase query, the number of results and the rating weight it was started with.
+     * Searches started with different rating weights rank the media differently, so they do not share a result.
+     */
+    private static record SearchKey(String query, int count, float ratingWeight) {}
+
+    /** How many search points each point of rating is worth. See {@link #setRatingWeight(float)}. */
+    private volatile float ratingWeight = 0;
+
+    /** The asynchronous searches that have not finished yet, so identical searches can share the result. */
+    private final Map<SearchKey, CompletableFuture<List<Media>>> searchesInFlight = new ConcurrentHashMap<>();
+
+    /** Creates an empty media library.
+     * The weight of its search cache grows with the library, see {@link MediaSorting.SearchCache#defaultMaxWeight(int)}.
+     */
     public MediaLibrary() {}
 
+    /** Creates an empty media library with the given bounds of its search cache. See {@link MediaSorting.SearchCache}.
+     * @param maxCachedQueries The maximum number of cached queries.
+     * @param maxCachedWeight The maximum total number of scored media in the cache.
+     * @throws IllegalArgumentException If a bound is not positive.
+     */
+    public MediaLibrary(int maxCachedQueries, long maxCachedWeight) throws IllegalArgumentException {
+        this.searchCache = new MediaSorting.SearchCache(maxCachedQueries, maxCachedWeight, MediaSorting.SearchCache.Eviction.LEAST_RECENTLY_USED);
+        this.fitSearchCache = false;
+    }
+
     /** Creates a new copy of the given media library */
     public MediaLibrary(MediaLibrary library) {
-        this.library = (MediaSet) library.getMediaSet().clone();
+        this.library = new MediaStore(library.getMediaStore());
+        this.titleIndex = new TitleIndex(this.library);
+        this.titleTrie = new TitleTrie(this.library);
+        this.titleVocabulary = new TitleVocabulary(this.library);
+        this.sortIndex = new SortIndex(this.library);
+        this.categoryIndex = new CategoryIndex(this.library);
+        fitSearchCache();
     }
 
     /** Creates a new media library that contains all media in the given files.
@@ -52,7 +111,7 @@ public class MediaLibrary {
         return (MediaLibrary) FileSerialization.loadFrom(filePath);
     }
 
-    /** Re-reads the media files and updates the media library, and clears the search cache.
+    /** Re-reads the media files and updates the media library, rebuilds the title index, trie, vocabulary, sort index and category index, and clears the search cache.
      * @param filePathMovies The path to the file containing movies.
      * @param filePathSeries The path to the file containing series.
      * @throws IOException If the files could not be read.
@@ -60,8 +119,42 @@ public class MediaLibrary {
      */
     public void readFiles(String filePathMovies, String filePathSeries) throws IOException, InvalidStringFormatException {
         Media[] mediaArray = MediaParsing.parseFiles(filePathMovies, filePathSeries);
-        library = new MediaSet(Stream.of(mediaArray).filter(m -> m != null).collect(Collectors.toSet()));
+        // The store is reused, so started searches see that it was modified.
+        library.clear();
+        Stream.of(mediaArray).filter(m -> m != null).forEach(library::add);
+        titleIndex = new TitleIndex(library);
+        titleTrie = new TitleTrie(library);
+        titleVocabulary = new TitleVocabulary(library);
+        sortIndex = new SortIndex(library);
+        categoryIndex = new CategoryIndex(library);
         searchCache.clear();
+        fitSearchCache();
+    }
+
+    /** Grows the weight of the search cache with the library, unless its bounds were given. */
+    private void fitSearchCache() {
+        if(fitSearchCache)
+            searchCache.setMaxWeight(MediaSorting.SearchCache.defaultMaxWeight(library.size()));
+    }
+
+    /** Sets how much higher rated media are prioritized when searching.
+     * The rating times the weight is added to the search score of every media,
+     * so with a weight of 1, a point of rating is worth as much as a point of search score.
+     * @param ratingWeight How many search points each point of rating is worth. 0 ignores the rating, which is the default.
+     * At most {@link MediaSorting#maxRatingWeight}, which sorts the results by rating.
+     * @throws IllegalArgumentException If the weight is negative, above the maximum weight, or not a number.
+     */
+    public void setRatingWeight(float ratingWeight) {
+        if(!(ratingWeight >= 0 && ratingWeight <= MediaSorting.maxRatingWeight))
+            throw new IllegalArgumentException("The rating weight must be between 0 and " + MediaSorting.maxRatingWeight + ", but was " + ratingWeight + ".");
+        this.ratingWeight = ratingWeight;
+    }
+
+    /** Returns how much higher rated media are prioritized when searching. See {@link #setRatingWeight(float)}.
+     * @return How many search points each point of rating is worth.
+     */
+    public float getRatingWeight() {
+        return ratingWeight;
     }
 
     /** Returns the media library sorted by the given search string.
@@ -84,53 +177,275 @@ public class MediaLibrary {
      * @return A set of media that matches the given query.
      */
     public List<Media> sortBySearch(String query, int count, boolean useCache, boolean parallel) {
-        return MediaSorting.sortBySearchQueries(library, query.split(" "), searchCache, count, useCache, parallel);
+        return MediaSorting.sortBySearchQueries(library, titleIndex, query.split(" "), searchCache, count, useCache, parallel, ratingWeight);
+    }
+
+    /** Returns the media accepted by the filter sorted by the given search string,
+     * like {@link #sortBySearch(String, int, boolean, boolean)}.
+     * <p> The accepted media are found first, see {@link FilterPlanner}, and if there are few of them, only they are scored.
+     * @param query The query to search for.
+     * @param filter The filter the media must be accepted by. See {@link MediaFilter}.
+     * @param count The maximum number of results to return. Best results are returned first.
+     * @return The accepted media, best match first.
+     */
+    public List<Media> sortBySearch(String query, MediaFilter filter, int count) {
+        String[] queries = query.split(" ");
+        if(filter.acceptsAll())
+            return MediaSorting.sortBySearchQueries(library, titleIndex, queries, searchCache, count, true, false, ratingWeight);
+        MediaSorting.SearchMode mode = MediaSorting.chooseSearchMode(library.size(), queries.length);
+        return MediaSorting.sortBySearchQueries(library, titleIndex, queries, searchCache, count, true, mode, ratingWeight, findIds(filter), null);
+    }
+
+    /** Same as {@link #sortBySearch(String, MediaFilter, int)},
+     * but also counts the categories, decades and ratings of all the media accepted by the filter.
+     * <p> The media are counted while their scores are compared to find the best results, so the search does not look at them twice.
+     * @param query The query to search for.
+     * @param filter The filter the media must be accepted by. See {@link MediaFilter}.
+     * @param count The maximum number of results to return. Best results are returned first.
+     * @return The accepted media, best match first, and the facets of all the accepted media.
+     */
+    public Facets.Result sortBySearchWithFacets(String query, MediaFilter filter, int count) {
+        String[] queries = query.split(" ");
+        int[] candidates = findIds(filter);
+        MediaSorting.SearchMode mode = MediaSorting.chooseSearchMode(library.size(), queries.length);
+        Facets facets = new Facets();
+        List<Media> media = MediaSorting.sortBySearchQueries(library, titleIndex, queries, searchCache, count, true, mode, ratingWeight, candidates, facets);
+        return new Facets.Result(media, facets);
+    }
+
+    /** Returns the media whose titles contain a word within the given edit distance of every word in the query.
+     * Unlike {@link #sortBySearch(String, int, boolean, boolean)}, media that do not match are not returned.
+     * <i>Case insensitive</i>.
+     * @param query The query to search for.
+     * @param maxDistance The maximum number of inserted, deleted or replaced characters between a query word and a title word.
+     * @param count The maximum number of results to return. Closest results are returned first.
+     * @return The matching media, closest first.
+     */
+    public List<Media> sortByFuzzySearch(String query, int maxDistance, int count) {
+        return MediaSorting.sortByFuzzySearch(library, titleVocabulary, query.split(" "), maxDistance, count);
+    }
+
+    /** The suggestions for a prefix, and where the prefix ended in the title trie. See {@link #suggest(String, int, Suggestions)}.
+     * <p> Each user typing a title holds their own suggestions, and passes them to the next call,
+     * so users typing at the same time do not replace each other's cursors.
+     * @param media The matching media, best rated first.
+     * @param cursor Where the prefix ended in the title trie.
+     */
+    public static record Suggestions(List<Media> media, TitleTrie.Cursor cursor) {}
+
+    /** Returns the best rated media whose titles have a word starting with the given prefix.
+     * Meant to be called for every character typed, <i>case insensitive</i>.
+     * <p> If the prefix continues the prefix of the previous suggestions, the search continues from where the previous one ended,
+     * and the best media of a prefix are remembered until the library is modified. See {@link TitleTrie}.
+     * @param prefix The start of a word in the title. <i>Should be a single word.</i>
+     * @param count The maximum number of media to return.
+     * @param previous The suggestions returned for the previous character typed by the same user, or {@code null}.
+     * @return The matching media, best rated first, and the cursor to continue from.
+     */
+    public Suggestions suggest(String prefix, int count, Suggestions previous) {
+        TitleTrie.Cursor cursor = titleTrie.find(previous == null ? null : previous.cursor(), prefix.toLowerCase());
+        List<Media> media = IntStream.of(titleTrie.suggest(cursor, count))
+                                     .mapToObj(library::get)
+                                     .collect(Collectors.toList());
+        return new Suggestions(media, cursor);
+    }
+
+    /** Same as {@link #suggest(String, int, Suggestions)}, but always searches the prefix from the start.
+     * @param prefix The start of a word in the title. <i>Should be a single word.</i>
+     * @param count The maximum number of media to return.
+     * @return The matching media, best rated first.
+     */
+    public List<Media> suggest(String prefix, int count) {
+        return suggest(prefix, count, null).media();
+    }
+
+    /** Searches the library for each of the given queries, like {@link #sortBySearch(String, int, boolean, boolean)}.
+     * The library is read once for the whole batch, instead of once per query.
+     * <p> The search cache is not used, so the batch does not evict the results of other searches.
+     * @param queries The queries to search for.
+     * @param count The maximum number of results to return for each query. Best results are returned first.
+     * @return The media that matches each query, in the order of the queries.
+     */
+    public List<List<Media>> sortBySearchBatch(List<String> queries, int count) {
+        String[][] words = queries.stream().map(query -> query.split(" ")).toArray(String[][]::new);
+        return MediaSorting.sortBySearchBatch(library, titleIndex, words, count, ratingWeight);
+    }
+
+    /** Searches the library on another thread, like {@link #sortBySearch(String, int, boolean, boolean)}.
+     * <p> If an identical search is already running, the result of that search is shared instead of searching again.
+     * Searches are identical if their queries are equal, ignoring case, they return the same number of results,
+     * and they use the same rating weight.
+     * <p><i> The library must not be modified before the returned future completes.</i>
+     * @param query The query to search for.
+     * @param count The maximum number of results to return. Best results are returned first.
+     * @return A future completed with an unmodifiable list of the media that matches the query.
+     */
+    public CompletableFuture<List<Media>> searchAsync(String query, int count) {
+        SearchKey key = new SearchKey(query.toLowerCase(), count, ratingWeight);
+        CompletableFuture<List<Media>> search = new CompletableFuture<>();
+        CompletableFuture<List<Media>> running = searchesInFlight.putIfAbsent(key, search);
+        if(running != null)
+            return running.copy(); // A copy, so completing it does not affect the other callers.
+
+        searchExecutor.execute(() -> {
+            try {
+                List<Media> result = Collections.unmodifiableList(
+                    MediaSorting.sortBySearchQueries(library, titleIndex, key.query().split(" "), searchCache, count, true, true, key.ratingWeight()));
+                searchesInFlight.remove(key, search);
+                search.complete(result);
+            }
+            catch(Throwable exception) {
+                searchesInFlight.remove(key, search);
+                search.completeExceptionally(exception);
+            }
+        });
+        return search.copy();
+    }
+
+    /** Starts a search of the library, whose results are returned a page at a time.
+     * Searches by title and category like {@link #sortBySearch(String, int, boolean, boolean)}, <i>case insensitive</i>.
+     * <p> Later pages continue from the previous page instead of searching again.
+     * <i>The cursor expires when the library is modified.</i>
+     * @param query The query to search for.
+     * @param useCache Whether to use the search cache.
+     * @param parallel Whether to use concurrent search.
+     * @return A cursor over the results. See {@link MediaSorting.SearchCursor#next(int)}.
+     */
+    public MediaSorting.SearchCursor startSearch(String query, boolean useCache, boolean parallel) {
+        return MediaSorting.startSearch(library, titleIndex, query.split(" "), searchCache, useCache, parallel, ratingWeight);
     }
 
     /** Returns a sorted list of the library,
      * using a specified sorting method.
+     * <p> The library is kept sorted by every property as it is modified, so nothing is sorted here. See {@link SortIndex}.
      * @param sortBy The property to sort by.
      * @param sortOrder The order to sort in.
      * @return The sorted list of media.
      */
     public List<Media> sortBy(MediaSorting.SortBy sortBy, MediaSorting.SortOrder sortOrder) {
-        return MediaSorting.sortMedia(library, sortBy, sortOrder);
+        return sortIndex.sortMedia(sortBy, sortOrder);
+    }
+
+    /** Returns a page of the library sorted using a specified sorting method.
+     * Only the media on the page are read from the sorted library, see {@link SortIndex}.
+     * @param sortBy The property to sort by.
+     * @param sortOrder The order to sort in.
+     * @param offset The number of media to skip.
+     * @param limit The maximum number of media to return.
+     * @return The sorted list of at most {@code limit} media.
+     * @throws IllegalArgumentException If the offset or the limit is negative.
+     */
+    public List<Media> sortBy(MediaSorting.SortBy sortBy, MediaSorting.SortOrder sortOrder, int offset, int limit) {
+        return sortIndex.sortMedia(sortBy, sortOrder, offset, limit);
     }
 
-    /** Adds the given media to the library, and clears the search cache.
+    /** Returns a page of the media accepted by the filter, sorted using a specified sorting method.
+     * The accepted media are found by their release years or ratings in the sorted library, or by their categories,
+     * whichever accepts the fewest media. See {@link FilterPlanner}.
+     * @param filter The filter the media must be accepted by. See {@link MediaFilter}.
+     * @param sortBy The property to sort by.
+     * @param sortOrder The order to sort in.
+     * @param offset The number of media to skip.
+     * @param limit The maximum number of media to return.
+     * @return The sorted list of at most {@code limit} media.
+     * @throws IllegalArgumentException If the offset or the limit is negative.
+     */
+    public List<Media> sortBy(MediaFilter filter, MediaSorting.SortBy sortBy, MediaSorting.SortOrder sortOrder, int offset, int limit) {
+        if(filter.acceptsAll())
+            return sortIndex.sortMedia(sortBy, sortOrder, offset, limit);
+        return sortIndex.sortMedia(findIds(filter), sortBy, sortOrder, offset, limit, null);
+    }
+
+    /** Same as {@link #sortBy(MediaFilter, MediaSorting.SortBy, MediaSorting.SortOrder, int, int)},
+     * but also counts the categories, decades and ratings of all the media accepted by the filter.
+     * <p> The media are counted while the page is selected, so they are not looked at twice.
+     * <i>Unlike a page without facets, every accepted media is looked at, even if the filter accepts every media.</i>
+     * @param filter The filter the media must be accepted by. See {@link MediaFilter}.
+     * @param sortBy The property to sort by.
+     * @param sortOrder The order to sort in.
+     * @param offset The number of media to skip.
+     * @param limit The maximum number of media to return.
+     * @return The sorted list of at most {@code limit} media, and the facets of all the accepted media.
+     * @throws IllegalArgumentException If the offset or the limit is negative.
+     */
+    public Facets.Result sortByWithFacets(MediaFilter filter, MediaSorting.SortBy sortBy, MediaSorting.SortOrder sortOrder, int offset, int limit) {
+        int[] ids = findIds(filter);
+        Facets facets = new Facets();
+        List<Media> media = sortIndex.sortMedia(ids, sortBy, sortOrder, offset, limit, facets);
+        return new Facets.Result(media, facets);
+    }
+
+    /** Returns the IDs of the media accepted by the filter,
+     * found by the part of the filter accepting the fewest media. See {@link FilterPlanner}.
+     */
+    private int[] findIds(MediaFilter filter) {
+        return FilterPlanner.findIds(library, sortIndex, categoryIndex, filter);
+    }
+
+    /** Returns the hit, miss and eviction counters and the current size of the search cache.
+     * @return A snapshot of the search cache statistics.
+     */
+    public MediaSorting.SearchCache.Statistics getSearchCacheStatistics() {
+        return searchCache.getStatistics();
+    }
+
+    /** Adds the given media to the library, and updates the search cache.
+     * <i>Must not run at the same time as any search, see {@link MediaLibrary}.</i>
      * @param media The media to add.
      */
     public void add(Media media) {
-        library.add(media);
-        searchCache.clear();
+        if(library.add(media)) {
+            int id = library.getId(media);
+            titleIndex.add(id, media.title);
+            titleTrie.add(id, media.title);
+            titleVocabulary.add(id, media.title);
+            sortIndex.add(id);
+            categoryIndex.add(id, media.categories);
+            searchCache.add(id, titleIndex);
+            fitSearchCache();
+        }
     }
 
-    /** Adds all media in the given library to this library, and clears the search cache.
+    /** Adds all media in the given library to this library, and updates the search cache.
      * @param media The set of media to add.
      */
     public void addAll(MediaLibrary media) {
-        library.addAll(media.getMediaSet());
-        searchCache.clear();
+        media.getMediaStore().forEach(this::add);
     }
 
-    /** Removes the given media from the library, and clears the search cache.
+    /** Removes the given media from the library, and updates the search cache.
+     * <i>Must not run at the same time as any search, see {@link MediaLibrary}.</i>
      * @param media The media to remove.
      */
     public void remove(Media media) {
+        int id = library.getId(media);
+        if(id < 0)
+            return;
+
+        searchCache.remove(id);
+        titleIndex.remove(id, media.title);
+        titleTrie.remove(id, media.title);
+        titleVocabulary.remove(id, media.title);
+        sortIndex.remove(id);
+        categoryIndex.remove(id, media.categories);
         library.remove(media);
-        searchCache.clear();
     }
 
     /** Clears the library, and clears the search cache. */
     public void removeAll() {
         library.clear();
+        titleIndex.clear();
+        titleTrie.clear();
+        titleVocabulary.clear();
+        sortIndex.clear();
+        categoryIndex.clear();
         searchCache.clear();
     }
 
     /** Returns the library of media.
      * @return The library of media.
      */
-    private MediaSet getMediaSet() {
+    private MediaStore getMediaStore() {
         return library;
     }
 
@@ -1,23 +1,28 @@
 package Code.Logic;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
-import java.util.function.ToDoubleFunction;
+import java.util.function.Predicate;
 import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import Code.Data.Media;
+import Code.Data.MediaStore;
 
 /** Effectively functions as a namespace for functions that search for media.
- * <p> Use {@link #sortBySearchQueries(String[], Set, SearchCache, int, boolean, boolean))} to search for media.
+ * <p> Use {@link #sortBySearchQueries(MediaStore, TitleIndex, String[], SearchCache, int, boolean, boolean)} to search for media.
  * <p> Use the {@link #SearchCache} class to cache search results.
  */
 public class MediaSorting {
@@ -31,213 +36,1195 @@ public class MediaSorting {
 
     /** A class that caches the results of search queries,
      * so that equivalent queries don't have to be searched for multiple times.
-     * The cache is mapping from search queries to maps mapping from media to a search score.
+     * The cache is mapping from search queries to the title scores of the media, see {@link TitleScores}.
      * Could be visualized like this:
-     * <p> {@code Map: query -> (Map: media -> score)}.
+     * <p> {@code Map: query -> (Sorted arrays: media ID, score)}.
      * <p> The cache is not stored locally in this class,
      * because it depends on the media library,
      * but is instead passed as a parameter to the search functions.
-     * <p><i> The cache should be cleared whenever the media library is modified.</i>
+     * <p> The cache is bounded, both by the number of queries and by its weight,
+     * which is the total number of scored media in all of the cached results.
+     * When either bound is exceeded, queries are evicted in the order given by its {@link Eviction}.
+     * A single result heavier than the whole weight budget is not cached at all.
+     * <p> The cache is safe to use from multiple threads.
+     * If several threads search for the same uncached query at the same time,
+     * only the first one scores the media, and the rest wait for its result.
+     * See {@link #computeIfAbsent(String, Function)}.
+     * <p><i> The cache should be updated whenever the media library is modified.</i>
+     * Use {@link #add(int, TitleIndex)} and {@link #remove(int)} when single media are added or removed,
+     * and {@link #clear()} when the whole library is replaced.
+     * The cache must not be updated while it is being searched,
+     * since the cached results are updated in place, and the threads reading them are not synchronized with the update.
      */
     public static class SearchCache {
-        private final Map<String, Map<Media, Integer>> cache = new HashMap<>();
 
-        /** Clears the cache. Should be used when media library is modified. */
-        public void clear() {
+        /** An enum expressing which queries are evicted first, when the cache is full. <ul>
+         * <p> {@link #LEAST_RECENTLY_USED} evicts the query that was searched for the longest time ago.
+         * <p> {@link #FIRST_IN_FIRST_OUT} evicts the query that was cached the longest time ago. </ul>
+         */
+        public static enum Eviction {
+            /** Evicts the least recently searched query. */
+            LEAST_RECENTLY_USED,
+            /** Evicts the first cached query. */
+            FIRST_IN_FIRST_OUT,
+        }
+
+        /** A snapshot of the statistics of a cache.
+         * @param hits The number of lookups that found a cached result.
+         * @param misses The number of lookups that did not find a cached result.
+         * @param evictions The number of results evicted to stay within the bounds.
+         * @param entries The number of currently cached queries.
+         * @param weight The current total number of scored media in the cache.
+         */
+        public static record Statistics(long hits, long misses, long evictions, int entries, long weight) {}
+
+        /** The default maximum number of cached queries. */
+        public static final int defaultMaxEntries = 1024;
+
+        /** The default maximum total number of scored media in the cache, for small libraries. See {@link #defaultMaxWeight(int)}. */
+        public static final long defaultMaxWeight = 1 << 18;
+
+        /** The default number of results scoring every media that fit in the cache. See {@link #defaultMaxWeight(int)}. */
+        public static final int defaultFullResults = 16;
+
+        /** A cached query. The result is completed by the thread that first searched for the query. */
+        private static final class Entry {
+            /** Once completed, the scores are updated in place by {@link #add(int, TitleIndex)} and {@link #remove(int)}. */
+            final CompletableFuture<TitleScores> result = new CompletableFuture<>();
+            /** The number of scored media in the result. Counted while holding the lock, when the result is completed. */
+            int weight = 0;
+        }
+
+        /** Guarded by {@code this}, like the rest of the mutable fields. */
+        private final LinkedHashMap<String, Entry> cache;
+        private final int maxEntries;
+        private long maxWeight;
+
+        private long weight = 0;
+        private long hits = 0, misses = 0, evictions = 0;
+
+        /** Creates a least recently used cache with the default bounds. */
+        public SearchCache() {
+            this(defaultMaxEntries, defaultMaxWeight, Eviction.LEAST_RECENTLY_USED);
+        }
+
+        /** Creates a cache with the given bounds.
+         * @param maxEntries The maximum number of cached queries.
+         * @param maxWeight The maximum total number of scored media in the cache.
+         * @param eviction The order in which queries are evicted.
+         * @throws IllegalArgumentException If a bound is not positive.
+         */
+        public SearchCache(int maxEntries, long maxWeight, Eviction eviction) throws IllegalArgumentException {
+            if(maxEntries <= 0 || maxWeight <= 0)
+                throw new IllegalArgumentException("Search cache bounds must be positive, but were " + maxEntries + " entries and " + maxWeight + " weight.");
+            this.maxEntries = maxEntries;
+            this.maxWeight = maxWeight;
+            // An access ordered LinkedHashMap moves entries to the end when they are read.
+            this.cache = new LinkedHashMap<>(16, 0.75f, eviction == Eviction.LEAST_RECENTLY_USED);
+        }
+
+        /** Returns the default maximum weight of a cache for a library of the given size.
+         * A common query word is a candidate in most titles, so its result weighs about as much as the library.
+         * The weight is therefore enough for {@link #defaultFullResults} of those, and never below {@link #defaultMaxWeight}.
+         * @param librarySize The number of media in the library.
+         * @return The maximum weight.
+         */
+        public static long defaultMaxWeight(int librarySize) {
+            return Math.max(defaultMaxWeight, (long) librarySize * defaultFullResults);
+        }
+
+        /** Changes the maximum total number of scored media in the cache,
+         * and evicts queries until the cache is within the new bound.
+         * @param maxWeight The maximum total number of scored media in the cache.
+         * @throws IllegalArgumentException If the bound is not positive.
+         */
+        public synchronized void setMaxWeight(long maxWeight) throws IllegalArgumentException {
+            if(maxWeight <= 0)
+                throw new IllegalArgumentException("Search cache bounds must be positive, but were " + maxWeight + " weight.");
+            this.maxWeight = maxWeight;
+            evict();
+        }
+
+        /** Clears the cache. Should be used when media library is replaced.
+         * The statistics are kept.
+         */
+        public synchronized void clear() {
             cache.clear();
+            weight = 0;
         }
 
-        /** Returns the cached map, that maps from media to a search score.
-         * @param query The query to search for.
-         * @return An optional containing the cached scoring map.
-         * Use methods such as <code>.isPresent()</code> to check if the query has been cached.
+        /** Updates every cached result after the given media was added to the library,
+         * instead of clearing the cache.
+         * The media is scored against each cached query, and added to the results it is a candidate for.
+         * @param id The ID of the added media.
+         * @param index The title index. <i>Must already contain the media.</i>
+         */
+        public synchronized void add(int id, TitleIndex index) {
+            final WordSignature[] title = index.getSignatures(id);
+
+            update(entry -> {
+                final WordSignature query = WordSignature.of(entry.getKey());
+                if(!TitleIndex.isCandidate(query, title))
+                    return false;
+                entry.getValue().result.join().put(id, calcSearchScore(query, title));
+                return true;
+            }, 1);
+        }
+
+        /** Updates every cached result after the given media was removed from the library,
+         * instead of clearing the cache.
+         * @param id The ID of the removed media.
+         */
+        public synchronized void remove(int id) {
+            update(entry -> entry.getValue().result.join().remove(id), -1);
+        }
+
+        /** Applies the update to every completed entry, and adjusts the weight of those it changed.
+         * Entries still being scored are dropped, since they might have missed the update.
+         * <i>Must hold the lock.</i>
+         * @param update Updates the result of an entry, and returns whether it changed the number of scored media.
+         * @param weightChange The change in weight of each changed entry.
+         */
+        private void update(Predicate<Map.Entry<String, Entry>> update, int weightChange) {
+            Iterator<Map.Entry<String, Entry>> entries = cache.entrySet().iterator();
+            while(entries.hasNext()) {
+                Map.Entry<String, Entry> entry = entries.next();
+                if(!entry.getValue().result.isDone()) {
+                    entries.remove();
+                    continue;
+                }
+                if(update.test(entry)) {
+                    entry.getValue().weight += weightChange;
+                    weight += weightChange;
+                }
+            }
+            evict();
+        }
+
+        /** Returns a snapshot of the statistics of this cache.
+         * @return The statistics.
          */
-        private Optional<Map<Media, Integer>> get(String query) {
-            return Optional.ofNullable(cache.get(query));
+        public synchronized Statistics getStatistics() {
+            return new Statistics(hits, misses, evictions, cache.size(), weight);
         }
 
-        /** Caches the result of the given query.
-         * @param query The query searched for.
-         * @param result The scoring map.
-         * @return The scoring map just added. <i>(For method chaining)</i>
+        /** Returns the cached title scores of the query,
+         * or computes and caches them if the query has not been cached.
+         * <p> The scorer is run outside of the lock, so other queries can be looked up in the meantime.
+         * Threads searching for the same query while it is being scored wait for the same result.
+         * If the cache is cleared while the query is being scored, the result is not cached,
+         * since it might not match the modified library.
+         * @param query The query to search for.
+         * @param scorer The function that scores the media, if the query has not been cached.
+         * @return The title scores.
          */
-        private Map<Media, Integer> add(String query, Map<Media, Integer> result) {
-            cache.put(query, result);
+        private TitleScores computeIfAbsent(String query, Function<String, TitleScores> scorer) {
+            final Entry entry;
+            final boolean isScorer;
+            synchronized(this) {
+                Entry cached = cache.get(query);
+                isScorer = cached == null;
+
+                if(isScorer) {
+                    misses++;
+                    // Register the query, so other threads wait for this thread to score it.
+                    entry = new Entry();
+                    cache.put(query, entry);
+                    evict();
+                }
+                else {
+                    hits++;
+                    entry = cached;
+                }
+            }
+
+            // If another thread has cached or is scoring the query, wait for its result.
+            if(!isScorer)
+                return entry.result.join();
+
+            final TitleScores result;
+            try {
+                result = scorer.apply(query);
+            } catch (RuntimeException | Error e) {
+                synchronized(this) {
+                    cache.remove(query, entry);
+                }
+                entry.result.completeExceptionally(e);
+                throw e;
+            }
+
+            // The result is completed while holding the lock, together with counting its weight,
+            // so an update cannot see the completed entry before its weight is counted, and count the change twice.
+            synchronized(this) {
+                // Only count the entry if it hasn't been cleared or evicted in the meantime.
+                if(cache.get(query) == entry) {
+                    // Results that would evict everything else are not worth caching.
+                    if(result.size() > maxWeight)
+                        cache.remove(query);
+                    else {
+                        entry.weight = result.size();
+                        weight += entry.weight;
+                    }
+                }
+                entry.result.complete(result);
+                evict();
+            }
+
             return result;
         }
+
+        /** Evicts the eldest queries until the cache is within its bounds. <i>Must hold the lock.</i> */
+        private void evict() {
+            Iterator<Entry> eldest = cache.values().iterator();
+            while(cache.size() > maxEntries || weight > maxWeight) {
+                weight -= eldest.next().weight;
+                eldest.remove();
+                evictions++;
+            }
+        }
     }
 
-    /** Similar to {@link #SearchCache} except it scores media categories instead of media.
-     * This does not depend on the media library, and is therefore stored in a private static field.
-    */
-    private static final Map<String, Map<Media.Category, Integer>> searchCategoryCache = new HashMap<>();
+    /** The signatures of the lowercase names of the categories, indexed by their ordinal. */
+    private static final WordSignature[] categorySignatures =
+        Stream.of(Media.Category.values())
+              .map(c -> WordSignature.of(c.toString().toLowerCase()))
+              .toArray(WordSignature[]::new);
+
+    /** A media and the collation key of its title, see {@link MediaStore#toTitleKey(String)}.
+     * Media are decorated with their keys before they are sorted by title, so the key of each title is only created once.
+     */
+    private static record TitleKeyed(Media media, byte[] key) {}
+
+    /** Compares media by title (alphabetically, in Danish, see {@link MediaStore#compareTitles(byte[], String, byte[], String)}). */
+    private static Comparator<TitleKeyed> titleComparator =
+        (a, b) -> MediaStore.compareTitles(a.key(), a.media().title, b.key(), b.media().title);
 
     /** The default comparator for comparing Media.
-     * First compares by title (alphabetically), then by year (newest first).
+     * First compares by title (alphabetically, in Danish), then by year (newest first).
      * <p> TODO: Maybe make Media implement Comparable instead?
      */
-    private static Comparator<Media> defaultComparator =
-        Comparator.comparing((Function<Media, String>)(m -> m.title))
-                  .thenComparing(Comparator.comparingInt((ToIntFunction<Media>)m -> m.releaseYear).reversed());
+    private static Comparator<TitleKeyed> defaultComparator =
+        titleComparator.thenComparing(Comparator.comparingInt((ToIntFunction<TitleKeyed>)k -> k.media().releaseYear).reversed());
+
+    /** Compares the media with the given IDs like the {@link #defaultComparator},
+     * but by reading the columns of the store instead of creating the media.
+     * @param media The store containing the media.
+     * @param a The ID of the first media.
+     * @param b The ID of the second media.
+     * @return The comparison of the media.
+     */
+    private static int compareDefault(MediaStore media, int a, int b) {
+        int comparison = media.compareTitles(a, b);
+        return comparison != 0 ? comparison : Integer.compare(media.getReleaseYear(b), media.getReleaseYear(a));
+    }
+
+    /** Compares the media with the given IDs by rating (highest first), and then like {@link #compareDefault(MediaStore, int, int)}.
+     * Used to rank suggestions, see {@link TitleTrie}.
+     * @param media The store containing the media.
+     * @param a The ID of the first media.
+     * @param b The ID of the second media.
+     * @return The comparison of the media.
+     */
+    static int compareByRating(MediaStore media, int a, int b) {
+        int comparison = Float.compare(media.getRating(b), media.getRating(a));
+        return comparison != 0 ? comparison : compareDefault(media, a, b);
+    }
 
-    /** Takes a set of media and returns a map mapping from media to a search score.
+    /** Takes a title index and returns the title scores of the media.
      * The searh score for each media is calculated based on how well
-     * the query matches the title of the media. See {@link #calcSearchScore(String, String)}.
+     * the query matches the title of the media. See {@link #calcSearchScore(WordSignature, WordSignature)}.
+     * <p> Only the media sharing a character pair with the query are scored,
+     * see {@link TitleIndex#getCandidates(String)}. The rest are left out of the scores.
+     * <i>This changes the ranking on purpose: the rest would still get points for shared characters,
+     * the length and the first and last characters, but now get a title score of 0, so they rank below every candidate
+     * with the same category score.</i>
      * <p> Uses the given cache to avoid searching the same query multiple times.
      * Also caches the results of the search.
      * @param query The query to search for.
-     * @param media The set of media to search in.
+     * @param index The title index of the media to search in.
      * @param cache The cache to use.
-     * @return A map mapping from media to a search score.
-     */
-    private static Map<Media, Integer> calcSearchScorerByTitle(String query, Set<Media> media, SearchCache cache, boolean useCache) {
-        if(useCache) {
-            // If the query is already cached, use the cached result
-            Optional<Map<Media, Integer>> cachedResult = cache.get(query);
-            if (cachedResult.isPresent())
-                return cachedResult.get();
-        }
-
-        // For each media, calculate the search score,
-        // and collect the mapping from media to score in a map
-        Map<Media, Integer> result =
-            media.stream()
-                 .collect(Collectors.toMap(
-                 /* Map Key: */         m -> m, // The map key is the media itself
-                 /* Map Value: */       m -> Stream.of(m.title.toLowerCase().split(" ")) // First, split the title into words
-                                                   .mapToInt(s -> calcSearchScore(query, s)) // Calculate the search score for each word
-                                                   .max() // Get the highest score
-                                                   .orElse(0) // If there are no words, the score is 0
-                 ));
-        
-        if(useCache) cache.add(query, result);
-        
-        return result;
+     * @param useCache Whether to use the cache.
+     * @param parallel Whether to split the candidates between threads.
+     * @return The title scores of the candidate media.
+     */
+    private static TitleScores calcSearchScorerByTitle(String query, TitleIndex index, SearchCache cache, boolean useCache, boolean parallel) {
+        // If the query is already cached, use the cached result. Otherwise score the titles and cache the result.
+        if(useCache)
+            return cache.computeIfAbsent(query, q -> calcSearchScorerByTitle(q, index, parallel));
+        else
+            return calcSearchScorerByTitle(query, index, parallel);
     }
 
-    /** Takes a set of media and returns a map mapping from media to a search score.
-     * The searh score for each media is calculated based on how well
-     * the query matches the categories of the media. See {@link #calcSearchScore(String, String)}.
-     * <p> Uses private cache to avoid searching the same query multiple times.
-     * Also caches the results of the search.
+    /** Scores the titles in the title index without using the cache.
+     * See {@link #calcSearchScorerByTitle(String, TitleIndex, SearchCache, boolean, boolean)}.
+     */
+    private static TitleScores calcSearchScorerByTitle(String query, TitleIndex index, boolean parallel) {
+        // The signature of the query is only computed once
+        final WordSignature querySignature = WordSignature.of(query);
+
+        // For each media sharing a character pair with the query, calculate the search score.
+        final int[] candidates = index.getCandidates(query);
+        final int[] scores = new int[candidates.length];
+        (parallel ? IntStream.range(0, candidates.length).parallel() : IntStream.range(0, candidates.length))
+            .forEach(i -> scores[i] = calcSearchScore(querySignature, index.getSignatures(candidates[i])));
+
+        return new TitleScores(candidates, scores);
+    }
+
+    /** Returns the search score of the best matching title word.
+     * @param query The signature of the query word.
+     * @param title The signatures of the title words.
+     * @return The highest search score of the title words, or 0 if there are no words.
+     */
+    private static int calcSearchScore(WordSignature query, WordSignature[] title) {
+        int max = 0;
+        for(WordSignature word : title)
+            max = Math.max(max, calcSearchScore(query, word));
+        return max;
+    }
+
+    /** Returns the search score of each category, indexed by the ordinal of the category.
+     * The search score for each category is calculated based on how well
+     * the query matches the name of the category. See {@link #calcSearchScore(WordSignature, WordSignature)}.
+     * <p> The scores are not cached, since there are only a few categories,
+     * and a cache would grow with every distinct query.
      * @param query The query to search for.
-     * @param media The set of media to search in.
-     * @return A map mapping from media to a search score.
+     * @return An array of the search score of each category.
+     */
+    private static int[] calcSearchScorerByCategory(String query) {
+        final WordSignature querySignature = WordSignature.of(query);
+        return Stream.of(categorySignatures)
+                     .mapToInt(c -> calcSearchScore(querySignature, c))
+                     .toArray();
+    }
+
+    /** Returns the maximum search score of the categories of a media.
+     * @param categoryScores The search scores of each category. See {@link #calcSearchScorerByCategory(String)}.
+     * @param categoryMask The categories of the media. See {@link Media#categories}.
+     * @return The highest score of the categories of the media, or 0 if it has no categories.
+     */
+    private static int calcSearchScore(int[] categoryScores, int categoryMask) {
+        int max = 0;
+        for(int mask = categoryMask; mask != 0; mask &= mask - 1)
+            max = Math.max(max, categoryScores[Integer.numberOfTrailingZeros(mask)]);
+        return max;
+    }
+
+    /** An enum expressing how a search is split between threads. <ul>
+     * <p> {@link #SEQUENTIAL} searches on the calling thread only.
+     * <p> {@link #PARALLEL_QUERIES} scores each query word on its own thread.
+     * <p> {@link #PARALLEL_MEDIA} splits the media into chunks, which are scored on different threads. </ul>
+     * See {@link #chooseSearchMode(int, int)}.
+     */
+    public static enum SearchMode {
+        /** Searches on the calling thread. */
+        SEQUENTIAL,
+        /** Searches each query word on its own thread. */
+        PARALLEL_QUERIES,
+        /** Searches chunks of the media on different threads. */
+        PARALLEL_MEDIA,
+    }
+
+    /** Below this number of media times query words, a search is not worth splitting between threads. */
+    private static final long parallelThreshold = 1 << 14;
+
+    /** The number of media IDs that are summed together, when chunks of the media are searched in parallel. */
+    private static final int chunkSize = 1 << 12;
+
+    /** Chooses how to split a search between threads, based on the size of the search.
+     * <p> Small searches are sequential, since starting threads costs more than it saves.
+     * If there are enough query words to keep every thread busy, each query word gets a thread.
+     * Otherwise, which is the case for typical searches of a few words, the media is split between the threads.
+     * @param mediaCount The number of media to search in.
+     * @param queryCount The number of query words.
+     * @return The search mode to use.
+     */
+    public static SearchMode chooseSearchMode(int mediaCount, int queryCount) {
+        if((long) mediaCount * queryCount < parallelThreshold)
+            return SearchMode.SEQUENTIAL;
+        if(queryCount >= ForkJoinPool.getCommonPoolParallelism())
+            return SearchMode.PARALLEL_QUERIES;
+        return SearchMode.PARALLEL_MEDIA;
+    }
+
+    /** Each thread reuses its own array for summing the scores of a search, instead of allocating a new one every search. */
+    private static final ThreadLocal<int[]> scoreBuffer = ThreadLocal.withInitial(() -> new int[0]);
+
+    /** Each thread reuses its own arrays for the bounds and query words of the candidates of a bounded search,
+     * see {@link #sortBySearchQueriesBounded(MediaStore, TitleIndex, String[], int, float)}.
+     */
+    private static final ThreadLocal<int[]> boundBuffer = ThreadLocal.withInitial(() -> new int[0]),
+                                             candidateBuffer = ThreadLocal.withInitial(() -> new int[0]);
+
+    /** Returns the score array of the current thread, which is at least the given length.
+     * <i>The contents are left over from the previous search, and must be overwritten.</i>
+     */
+    private static int[] getScoreBuffer(int length) {
+        return getBuffer(scoreBuffer, length);
+    }
+
+    /** Returns the array of the current thread, which is at least the given length.
+     * <i>The contents are left over from the previous search, and must be overwritten.</i>
+     */
+    private static int[] getBuffer(ThreadLocal<int[]> local, int length) {
+        int[] buffer = local.get();
+        if(buffer.length < length) {
+            buffer = new int[length];
+            local.set(buffer);
+        }
+        return buffer;
+    }
+
+    /** Returns the media that matches the given queries.
+     * Searches by title and category, <i>case insensitive</i>.
+     * The media is firstly sorted by how well it matches the queries,
+     * and then by the default comparator.
+     * <p> Supports concurrent searching, where the search mode is chosen based on the size of the search.
+     * See {@link #chooseSearchMode(int, int)}.
+     * <p> Uses the cache to avoid searching the same query multiple times.
+     * Also caches the results of the search.
+     * Without the cache, searches for few results stop scoring titles early,
+     * see {@link #sortBySearchQueriesBounded(MediaStore, TitleIndex, String[], int)}.
+     * @param media The media to search in.
+     * @param index The title index of the media. <i>Must contain exactly the given media.</i>
+     * @param queries The queries to search for.
+     * @param cache The cache to use.
+     * @param count The number of results to return.
+     * @param useCache Whether to use the cache.
+     * @param parallel Whether to allow concurrent searching.
+     * @return A sorted list of media that matches the given queries.
+     */
+    public static List<Media> sortBySearchQueries(MediaStore media, TitleIndex index, String[] queries, SearchCache cache, int count, boolean useCache, boolean parallel) {
+        return sortBySearchQueries(media, index, queries, cache, count, useCache, parallel, 0);
+    }
+
+    /** Same as {@link #sortBySearchQueries(MediaStore, TitleIndex, String[], SearchCache, int, boolean, boolean)},
+     * but higher rated media get a higher score. See {@link #calcRatingBoost(float, float)}.
+     * @param ratingWeight How many points each point of rating is worth. 0 ignores the rating.
+     */
+    public static List<Media> sortBySearchQueries(MediaStore media, TitleIndex index, String[] queries, SearchCache cache, int count, boolean useCache, boolean parallel, float ratingWeight) {
+        if(!useCache && count <= boundedSearchLimit && queries.length <= Integer.SIZE)
+            return sortBySearchQueriesBounded(media, index, queries, count, ratingWeight);
+        SearchMode mode = parallel ? chooseSearchMode(media.size(), queries.length) : SearchMode.SEQUENTIAL;
+        return sortBySearchQueries(media, index, queries, cache, count, useCache, mode, ratingWeight);
+    }
+
+    /** Search scores are multiplied by this, so a rating boost can add fractions of a point.
+     * Ratings have a single decimal, so a rating weight of 1 adds whole points for the ratings. See {@link #calcRatingBoost(float, float)}.
+     */
+    private static final int ratingScale = 10;
+
+    /** The highest rating weight. A point of rating is then worth more than the search score of any title,
+     * so the results are sorted by rating. See {@link #calcRatingBoost(float, float)}.
      */
-    private static Map<Media, Integer> calcSearchScorerByCategory(String query, Set<Media> media) {
-        final Map<Media.Category, Integer> categories;
+    public static final float maxRatingWeight = 1000;
+
+    /** The highest rating boost, given to a media rated 10 with the {@link #maxRatingWeight}. */
+    private static final int maxRatingBoost = (int) (10 * maxRatingWeight * ratingScale);
 
-        // If the query is already in the category cache, use it.
-        if(searchCategoryCache.containsKey(query))
-            categories = searchCategoryCache.get(query);
-            
-        // Otherwise, calculate how well the query matches each category
+    /** Returns how much the rating adds to the search score of a media, in units of {@code 1 / ratingScale} points.
+     * The search score of a media is its title and category scores times {@link #ratingScale} plus this boost,
+     * so the whole score is a single int, which is packed together with the ID when selecting the best media.
+     * <p> Weights above {@link #maxRatingWeight} are treated as the maximum weight, and the boost is kept within {@link #maxRatingBoost},
+     * so adding it to a search score cannot overflow.
+     * @param rating The rating of the media.
+     * @param ratingWeight How many points each point of rating is worth.
+     * @return The rating boost.
+     */
+    static int calcRatingBoost(float rating, float ratingWeight) {
+        if(ratingWeight == 0)
+            return 0;
+        long boost = Math.round((double) rating * Math.min(ratingWeight, maxRatingWeight) * ratingScale);
+        return (int) Math.max(-maxRatingBoost, Math.min(boost, maxRatingBoost));
+    }
+
+    /** Searches for at most this many results are done by {@link #sortBySearchQueriesBounded(MediaStore, TitleIndex, String[], int)},
+     * when the cache is not used.
+     */
+    private static final int boundedSearchLimit = 64;
+
+    /** The candidates of a bounded search are sorted by counting their bounds,
+     * unless there are more than this many possible bounds per candidate.
+     * Heavy rating weights spread the bounds over many values, and the candidates are then sorted by comparing them.
+     */
+    private static final int countingSortSpread = 4;
+
+    /** Returns the best media that matches the given queries, without scoring the titles of every candidate.
+     * Returns the same media as {@link #sortBySearchQueries(MediaStore, TitleIndex, String[], SearchCache, int, boolean, SearchMode)}
+     * without the cache, but is faster when few results are needed.
+     * <p> The category scores are cheap, so they are calculated for every media.
+     * The title scores of the candidates are bounded from above without scoring them,
+     * see {@link TitleIndex#calcSearchScoreBound(int, WordSignature)}.
+     * The candidates are then scored in the order of their bounds, highest first,
+     * until the worst of the best media so far scores higher than the bound of the next candidate.
+     * No media after that can be among the best, so their titles are never scored.
+     * <p><i> Supports at most 32 query words. More query words are searched by scoring every candidate.</i>
+     * @param media The media to search in.
+     * @param index The title index of the media. <i>Must contain exactly the given media.</i>
+     * @param queries The queries to search for.
+     * @param count The number of results to return.
+     * @return A sorted list of media that matches the given queries.
+     */
+    public static List<Media> sortBySearchQueriesBounded(MediaStore media, TitleIndex index, String[] queries, int count) {
+        return sortBySearchQueriesBounded(media, index, queries, count, 0);
+    }
+
+    /** Same as {@link #sortBySearchQueriesBounded(MediaStore, TitleIndex, String[], int)},
+     * but higher rated media get a higher score. See {@link #calcRatingBoost(float, float)}.
+     * @param ratingWeight How many points each point of rating is worth. 0 ignores the rating.
+     */
+    public static List<Media> sortBySearchQueriesBounded(MediaStore media, TitleIndex index, String[] queries, int count, float ratingWeight) {
+        if(queries.length > Integer.SIZE)
+            return sortBySearchQueries(media, index, queries, null, count, false, SearchMode.SEQUENTIAL, ratingWeight);
+        if(count <= 0)
+            return List.of();
+
+        final String[] words = Stream.of(queries).map(String::toLowerCase).toArray(String[]::new);
+        final WordSignature[] signatures = Stream.of(words).map(WordSignature::of).toArray(WordSignature[]::new);
+        final int[][] categoryScores = Stream.of(words).map(MediaSorting::calcSearchScorerByCategory).toArray(int[][]::new);
+
+        // The exact category scores and rating boosts of every media, and for the candidates, the bounds of their title scores,
+        // and which query words they are candidates for, as a bit for each query word.
+        final int capacity = media.capacity();
+        final int[] scores = getScoreBuffer(capacity);
+        final int[] bounds = getBuffer(boundBuffer, capacity);
+        final int[] candidateOf = getBuffer(candidateBuffer, capacity);
+        for(int id = 0; id < capacity; id++) {
+            scores[id] = 0;
+            bounds[id] = 0;
+            candidateOf[id] = 0;
+            if(!media.hasId(id)) continue;
+            final int categoryMask = media.getCategoryMask(id);
+            for(int[] category : categoryScores)
+                scores[id] += calcSearchScore(category, categoryMask);
+            scores[id] = scores[id] * ratingScale + calcRatingBoost(media.getRating(id), ratingWeight);
+        }
+        int candidateCount = 0;
+        for(int q = 0; q < words.length; q++) {
+            for(int id : index.getCandidates(words[q])) {
+                if(candidateOf[id] == 0) candidateCount++;
+                candidateOf[id] |= 1 << q;
+                bounds[id] += index.calcSearchScoreBound(id, signatures[q]) * ratingScale;
+            }
+        }
+
+        // The media that are not candidates for any query word only have category scores, which are exact.
+        final TopScored best = new TopScored(media, count);
+        final int[] candidates = new int[candidateCount];
+        int maxBound = Integer.MIN_VALUE, minBound = Integer.MAX_VALUE;
+        for(int id = 0, c = 0; id < capacity; id++) {
+            if(!media.hasId(id)) continue;
+            if(candidateOf[id] == 0) {
+                best.offer(id, scores[id]);
+                continue;
+            }
+            candidates[c++] = id;
+            bounds[id] += scores[id];
+            maxBound = Math.max(maxBound, bounds[id]);
+            minBound = Math.min(minBound, bounds[id]);
+        }
+
+        // Sorts the candidates by their bounds, highest first, and equal bounds by ID.
+        final int[] order = new int[candidateCount];
+        if(candidateCount > 0 && (long) maxBound - minBound < (long) candidateCount * countingSortSpread) {
+            // There are few possible bounds, so they are counted instead of compared.
+            final int[] starts = new int[maxBound - minBound + 2];
+            for(int id : candidates)
+                starts[maxBound - bounds[id] + 1]++;
+            for(int i = 1; i < starts.length; i++)
+                starts[i] += starts[i - 1];
+            for(int id : candidates)
+                order[starts[maxBound - bounds[id]]++] = id;
+        }
         else {
-            categories = Stream.of(Media.Category.values())
-                               .collect(Collectors.toMap(
-                               /* Map Key: */       c -> c, // The map key is the category itself
-                               /* Map Value: */     c -> calcSearchScore(query, c.toString().toLowerCase()) // The map value is the search score
-                               ));
-            // And add the result to the cache
-            searchCategoryCache.put(query, categories);
-        }
-
-        // For each media, calculate the maximum search score of its categories,
-        // and collect the mapping from media to score in a map
-        return media.stream()
-                    .collect(Collectors.toMap(
-                    /* Map Key: */       m -> m, // The map key is the media itself
-                    /* Map Value: */     m -> Stream.of(m.categories) // First, get the categories of the media
-                                                    .mapToInt(c -> categories.get(c)) // Calculate the search score for each category
-                                                    .max() // Get the highest score
-                                                    .orElse(0) // If there are no categories, the score is 0
-                    ));
+            // Packs how far each bound is below the highest bound together with the ID, so sorting the longs sorts the candidates.
+            final long[] keys = new long[candidateCount];
+            for(int c = 0; c < candidateCount; c++)
+                keys[c] = (long) (maxBound - bounds[candidates[c]]) << Integer.SIZE | candidates[c];
+            Arrays.sort(keys);
+            for(int c = 0; c < candidateCount; c++)
+                order[c] = (int) keys[c];
+        }
+
+        for(int id : order) {
+            // Candidates with a bound equal to the worst score can still win on the default comparator.
+            if(best.isFull() && best.getWorstScore() > bounds[id])
+                break;
+
+            int score = scores[id];
+            final WordSignature[] title = index.getSignatures(id);
+            for(int bits = candidateOf[id]; bits != 0; bits &= bits - 1)
+                score += calcSearchScore(signatures[Integer.numberOfTrailingZeros(bits)], title) * ratingScale;
+            best.offer(id, score);
+        }
+
+        return IntStream.of(best.toSortedIds())
+                        .mapToObj(media::get)
+                        .collect(Collectors.toList());
     }
 
     /** Returns the media that matches the given queries.
      * Searches by title and category, <i>case insensitive</i>.
      * The media is firstly sorted by how well it matches the queries,
      * and then by the default comparator.
-     * <p> Supports concurrent searching of multiple queries,
-     * which might be useful for larger amounts of queries.
-     * Though, due to the small size of the media library,
-     * concurrent searching probably won't be much faster, if at all.
+     * <p> The scores are summed in an array indexed by media ID, see {@link MediaStore},
+     * so no media is hashed and no score is boxed while searching.
+     * The media are only read from the columns of the store, and only the returned media are created.
      * <p> Uses the cache to avoid searching the same query multiple times.
      * Also caches the results of the search.
+     * @param media The media to search in.
+     * @param index The title index of the media. <i>Must contain exactly the given media.</i>
      * @param queries The queries to search for.
-     * @param media The set of media to search in.
      * @param cache The cache to use.
      * @param count The number of results to return.
      * @param useCache Whether to use the cache.
-     * @param parallel Whether to use parallel streams.
+     * @param mode How to split the search between threads.
      * @return A sorted list of media that matches the given queries.
      */
-    public static List<Media> sortBySearchQueries(Set<Media> media, String[] queries, SearchCache cache, int count, boolean useCache, boolean parallel) {
-        
-        // Stores the search score of each media. The search score is the number of queries that the media matches.
-        final Map<Media, Integer> scoreMap = parallel ? new ConcurrentHashMap<>() : new HashMap<>(); // Uses ConcurrentHashMap if parallel.
+    public static List<Media> sortBySearchQueries(MediaStore media, TitleIndex index, String[] queries, SearchCache cache, int count, boolean useCache, SearchMode mode) {
+        return sortBySearchQueries(media, index, queries, cache, count, useCache, mode, 0);
+    }
+
+    /** Same as {@link #sortBySearchQueries(MediaStore, TitleIndex, String[], SearchCache, int, boolean, SearchMode)},
+     * but higher rated media get a higher score. See {@link #calcRatingBoost(float, float)}.
+     * <p> The score of each media is a single int, which is packed together with the ID when selecting the best media,
+     * so only media with equal scores are compared by the default comparator.
+     * @param ratingWeight How many points each point of rating is worth. 0 ignores the rating.
+     */
+    public static List<Media> sortBySearchQueries(MediaStore media, TitleIndex index, String[] queries, SearchCache cache, int count, boolean useCache, SearchMode mode, float ratingWeight) {
+        final int capacity = media.capacity();
+        final int[] scores = getScoreBuffer(capacity);
+        calcSearchScores(media, index, queries, cache, useCache, mode, ratingWeight, scores);
+
+        // Select and sort the best results by their scores.
+        final TopScored best = new TopScored(media, count);
+        for(int id = 0; id < capacity; id++)
+            if(media.hasId(id))
+                best.offer(id, scores[id]);
+        return IntStream.of(best.toSortedIds())
+                        .mapToObj(media::get)
+                        .collect(Collectors.toList());
+    }
+
+    /** Same as {@link #sortBySearchQueries(MediaStore, TitleIndex, String[], SearchCache, int, boolean, SearchMode, float)},
+     * but only the given media can be returned.
+     * <p> If there are few candidates, only the candidates are scored, one title at a time, without using the cache.
+     * Otherwise every media is scored like the unfiltered search, which can use the title scores of the cache.
+     * See {@link #directScoreCost}.
+     * <p> The candidates can also be counted in facets while they are selected, so they are not looked at again.
+     * @param candidates The IDs of the media that can be returned, for example found by {@link FilterPlanner}.
+     * @param facets The facets to count the candidates in, or {@code null} to not count them.
+     */
+    public static List<Media> sortBySearchQueries(MediaStore media, TitleIndex index, String[] queries, SearchCache cache, int count, boolean useCache, SearchMode mode, float ratingWeight, int[] candidates, Facets facets) {
+        if((long) candidates.length * queries.length * directScoreCost < media.capacity())
+            return sortBySearchCandidates(media, index, queries, count, ratingWeight, candidates, facets);
+
+        final int[] scores = getScoreBuffer(media.capacity());
+        calcSearchScores(media, index, queries, cache, useCache, mode, ratingWeight, scores);
+
+        final TopScored best = new TopScored(media, count);
+        if(facets == null) {
+            for(int id : candidates)
+                best.offer(id, scores[id]);
+        }
+        else {
+            for(int id : candidates) {
+                best.offer(id, scores[id]);
+                facets.add(media, id);
+            }
+        }
+        return IntStream.of(best.toSortedIds())
+                        .mapToObj(media::get)
+                        .collect(Collectors.toList());
+    }
+
+    /** How many media are summed by {@link #calcSearchScores}, in about the time it takes to score a single title for a query.
+     * Used to decide when scoring only the candidates of a filter is faster than scoring every media.
+     */
+    private static final int directScoreCost = 8;
+
+    /** Scores only the given candidates, with the same scores as {@link #calcSearchScores}.
+     * See {@link #sortBySearchQueries(MediaStore, TitleIndex, String[], SearchCache, int, boolean, SearchMode, float, int[], Facets)}.
+     */
+    private static List<Media> sortBySearchCandidates(MediaStore media, TitleIndex index, String[] queries, int count, float ratingWeight, int[] candidates, Facets facets) {
+        final WordSignature[] signatures = Stream.of(queries).map(String::toLowerCase).map(WordSignature::of).toArray(WordSignature[]::new);
+        final int[][] categoryScores = Stream.of(queries).map(String::toLowerCase).map(MediaSorting::calcSearchScorerByCategory).toArray(int[][]::new);
+
+        final TopScored best = new TopScored(media, count);
+        for(int id : candidates) {
+            final WordSignature[] title = index.getSignatures(id);
+            final int categoryMask = media.getCategoryMask(id);
+            int score = 0;
+            for(int q = 0; q < signatures.length; q++) {
+                // Media that are not candidates for the title index get no title score, like in the full search.
+                if(TitleIndex.isCandidate(signatures[q], title))
+                    score += calcSearchScore(signatures[q], title);
+                score += calcSearchScore(categoryScores[q], categoryMask);
+            }
+            best.offer(id, score * ratingScale + calcRatingBoost(media.getRating(id), ratingWeight));
+            if(facets != null)
+                facets.add(media, id);
+        }
+        return IntStream.of(best.toSortedIds())
+                        .mapToObj(media::get)
+                        .collect(Collectors.toList());
+    }
+
+    /** Calculates the search score of every media, which is the sum of its title and category scores for each query,
+     * times {@link #ratingScale}, plus its rating boost.
+     * See {@link #sortBySearchQueries(MediaStore, TitleIndex, String[], SearchCache, int, boolean, SearchMode, float)}.
+     * @param scores The array to store the scores in, indexed by ID. <i>Must be at least {@link MediaStore#capacity()} long.</i>
+     */
+    private static void calcSearchScores(MediaStore media, TitleIndex index, String[] queries, SearchCache cache, boolean useCache, SearchMode mode, float ratingWeight, int[] scores) {
+        final boolean parallelQueries = mode == SearchMode.PARALLEL_QUERIES;
+        final boolean parallelMedia = mode == SearchMode.PARALLEL_MEDIA;
 
         // A stream of all the queries.
-        Stream<String> stream = parallel ? Stream.of(queries).parallel() : Stream.of(queries); // Uses parallel stream if parallel.
-        
-        // For each query...
-        stream.map(String::toLowerCase)
-            // first search by title and calculate the score mapping...
-            .peek(query -> calcSearchScorerByTitle(query, media, cache, useCache)
-                           // and for each media in the mapping, add the score to the score map.
-                           .forEach((m, score) -> scoreMap.merge(m, score, Integer::sum)))
-            // secondly search by category and calculate the score mapping...
-            .forEach(query -> calcSearchScorerByCategory(query, media)
-                              // and for each media in the mapping, add the score to the score map.
-                              .forEach((m, score) -> scoreMap.merge(m, score, Integer::sum)));
-
-        // Creates a comparator that uses the score map to compare media.
-        final Comparator<Media> scoreComparator =
-            Comparator.comparingInt((ToIntFunction<Media>)scoreMap::get) //  Have to cast to ToIntFunction for some reason. Compiler bug? >:(
-                      .reversed()
-                      .thenComparing(defaultComparator);
-
-        // If only one result is needed, return the media with the highest score.
-        if(count == 1)
-            return scoreMap.keySet()
-                           .stream()
-                           .min(scoreComparator)
-                           .stream()
-                           .collect(Collectors.toList());
-        
-        // If multiple results are needed, sort and return the results with the comparator.
-        else
-            return scoreMap.keySet()
-                           .stream()
-                           .sorted(scoreComparator)
-                           .limit(count)
-                           .collect(Collectors.toList());
+        Stream<String> stream = parallelQueries ? Stream.of(queries).parallel() : Stream.of(queries); // Uses parallel stream if parallel.
+
+        // For each query, search by title and calculate the title scores.
+        final TitleScores[] titleScores =
+            stream.map(String::toLowerCase)
+                  .map(query -> calcSearchScorerByTitle(query, index, cache, useCache, parallelMedia))
+                  .toArray(TitleScores[]::new);
+
+        // For each query, search by category and calculate the score of each category.
+        final int[][] categoryScores =
+            Stream.of(queries)
+                  .map(String::toLowerCase)
+                  .map(MediaSorting::calcSearchScorerByCategory)
+                  .toArray(int[][]::new);
+
+        // Stores the search score of each media by ID, which is the sum of its title and category scores for each query.
+        // The IDs are split into chunks, which are summed on their own thread when searching chunks of the media in parallel.
+        final int capacity = media.capacity();
+        final int chunks = (capacity + chunkSize - 1) / chunkSize;
+        (parallelMedia ? IntStream.range(0, chunks).parallel() : IntStream.range(0, chunks)).forEach(chunk -> {
+            final int from = chunk * chunkSize;
+            final int to = Math.min(from + chunkSize, capacity);
+
+            Arrays.fill(scores, from, to, 0);
+            for(TitleScores title : titleScores)
+                title.addTo(scores, from, to);
+
+            for(int id = from; id < to; id++) {
+                if(!media.hasId(id)) continue;
+                final int categoryMask = media.getCategoryMask(id);
+                for(int[] category : categoryScores)
+                    scores[id] += calcSearchScore(category, categoryMask);
+                scores[id] = scores[id] * ratingScale + calcRatingBoost(media.getRating(id), ratingWeight);
+            }
+        });
+    }
+
+    /** Returns a comparator that compares media by their scores (highest first), and then like the default comparator. */
+    private static IdComparator getScoreComparator(MediaStore media, int[] scores) {
+        return (a, b) -> {
+            int comparison = Integer.compare(scores[b], scores[a]);
+            return comparison != 0 ? comparison : compareDefault(media, a, b);
+        };
+    }
+
+    /** A search whose results are returned a page at a time. See {@link #startSearch(MediaStore, TitleIndex, String[], SearchCache, boolean, boolean, float)}.
+     * <p> Holds the scores of the search, and the media not returned yet in a heap with the best media at the top.
+     * Every page only takes the next media from the heap, so later pages do not search again,
+     * and the media after the last page are never sorted.
+     * <p><i> The cursor expires when the media it searched in is modified, see {@link #isExpired()}.</i>
+     */
+    public static final class SearchCursor {
+        private final MediaStore media;
+        private final int modifications;
+        /** Compares the media in reverse order, so the heap has the best media at the top. */
+        private final IdComparator reversed;
+        private final int[] heap;
+        private int size;
+
+        private SearchCursor(MediaStore media, int[] scores) {
+            this.media = media;
+            this.modifications = media.getModificationCount();
+            final IdComparator comparator = getScoreComparator(media, scores);
+            this.reversed = (a, b) -> comparator.compare(b, a);
+            this.heap = media.ids().toArray();
+            this.size = heap.length;
+            for(int i = size / 2 - 1; i >= 0; i--)
+                siftDown(heap, i, size, reversed);
+        }
+
+        /** Returns whether the media was modified after the search, in which case no more results can be returned.
+         * @return Whether the cursor has expired.
+         */
+        public boolean isExpired() {
+            return media.getModificationCount() != modifications;
+        }
+
+        /** Returns the number of results that have not been returned yet.
+         * @return The number of remaining results.
+         */
+        public synchronized int remaining() {
+            return size;
+        }
+
+        /** Returns the next page of results, continuing from the previous page.
+         * @param pageSize The maximum number of results to return.
+         * @return The next results, best first. Empty if there are no more results.
+         * @throws IllegalStateException If the cursor has expired. See {@link #isExpired()}.
+         */
+        public synchronized List<Media> next(int pageSize) {
+            if(isExpired())
+                throw new IllegalStateException("The media was modified after the search, so the search must be started again.");
+
+            List<Media> page = new ArrayList<>(Math.max(0, Math.min(pageSize, size)));
+            while(page.size() < pageSize && size > 0) {
+                page.add(media.get(heap[0]));
+                heap[0] = heap[--size];
+                siftDown(heap, 0, size, reversed);
+            }
+            return page;
+        }
+    }
+
+    /** Starts a search whose results are returned a page at a time, see {@link SearchCursor}.
+     * Searches and sorts like {@link #sortBySearchQueries(MediaStore, TitleIndex, String[], SearchCache, int, boolean, boolean)}.
+     * @param media The media to search in.
+     * @param index The title index of the media. <i>Must contain exactly the given media.</i>
+     * @param queries The queries to search for.
+     * @param cache The cache to use.
+     * @param useCache Whether to use the cache.
+     * @param parallel Whether to allow concurrent searching.
+     * @param ratingWeight How many points each point of rating is worth. See {@link #calcRatingBoost(float, float)}.
+     * @return A cursor over the results.
+     */
+    public static SearchCursor startSearch(MediaStore media, TitleIndex index, String[] queries, SearchCache cache, boolean useCache, boolean parallel, float ratingWeight) {
+        SearchMode mode = parallel ? chooseSearchMode(media.size(), queries.length) : SearchMode.SEQUENTIAL;
+        // The cursor keeps the scores, so they are not stored in the reused score buffer.
+        final int[] scores = new int[media.capacity()];
+        calcSearchScores(media, index, queries, cache, useCache, mode, ratingWeight, scores);
+        return new SearchCursor(media, scores);
+    }
+
+    /** Returns the media that matches each of the given queries, like searching for each query on its own.
+     * <p> The media are read in a single pass for the whole batch, instead of once per query.
+     * The distinct query words are indexed by their character pairs, like the titles are in the {@link TitleIndex},
+     * so the signatures of each title are read once, and only scored against the words sharing a character pair with them.
+     * Each query then sums the scores of its words and keeps its best media in a bounded heap.
+     * <p> Nothing is stored per media, so the memory used only grows with the number of queries and words in the batch.
+     * <p> The search cache is not used, so a large batch does not evict the cached results of other searches.
+     * @param media The media to search in.
+     * @param index The title index of the media. <i>Must contain exactly the given media.</i>
+     * @param queries The queries to search for, each split into words.
+     * @param count The number of results to return for each query.
+     * @param ratingWeight How many points each point of rating is worth. See {@link #calcRatingBoost(float, float)}.
+     * @return A sorted list of media for each query, in the order of the queries.
+     */
+    public static List<List<Media>> sortBySearchBatch(MediaStore media, TitleIndex index, String[][] queries, int count, float ratingWeight) {
+        // Gives every distinct query word an index, and stores the queries as the indices of their words.
+        final Map<String, Integer> wordIndices = new LinkedHashMap<>();
+        final int[][] queryWords = new int[queries.length][];
+        for(int q = 0; q < queries.length; q++) {
+            queryWords[q] = new int[queries[q].length];
+            for(int w = 0; w < queries[q].length; w++)
+                queryWords[q][w] = wordIndices.computeIfAbsent(queries[q][w].toLowerCase(), word -> wordIndices.size());
+        }
+        final String[] words = wordIndices.keySet().toArray(String[]::new);
+        final WordSignature[] signatures = Stream.of(words).map(WordSignature::of).toArray(WordSignature[]::new);
+        final int[][] wordCategoryScores = Stream.of(words).map(MediaSorting::calcSearchScorerByCategory).toArray(int[][]::new);
+
+        // Maps every character pair of the words to the indices of the words containing it.
+        // Single character words have no pairs, so they are checked against every title instead.
+        final Map<Integer, List<Integer>> pairWords = new HashMap<>();
+        final List<Integer> charWords = new ArrayList<>();
+        for(int w = 0; w < words.length; w++) {
+            if(signatures[w].length == 1)
+                charWords.add(w);
+            for(int pair : signatures[w].pairs)
+                pairWords.computeIfAbsent(pair, p -> new ArrayList<>()).add(w);
+        }
+        final Map<Integer, int[]> wordsByPair = new HashMap<>();
+        pairWords.forEach((pair, list) -> wordsByPair.put(pair, list.stream().mapToInt(Integer::intValue).toArray()));
+        final int[] singleCharWords = charWords.stream().mapToInt(Integer::intValue).toArray();
+
+        final TopScored[] results = new TopScored[queries.length];
+        for(int q = 0; q < queries.length; q++)
+            results[q] = new TopScored(media, count);
+
+        // The title score of each word for the current media. A score is only valid if the word was scored by that media.
+        final int[] titleScores = new int[words.length];
+        final int[] scoredBy = new int[words.length];
+        Arrays.fill(scoredBy, -1);
+        // The category scores of every word, for each combination of categories. Media share few combinations.
+        final Map<Integer, int[]> categoryScores = new HashMap<>();
+
+        final int capacity = media.capacity();
+        for(int id = 0; id < capacity; id++) {
+            if(!media.hasId(id)) continue;
+
+            final WordSignature[] title = index.getSignatures(id);
+            for(WordSignature titleWord : title) {
+                for(int pair : titleWord.pairs) {
+                    final int[] candidates = wordsByPair.get(pair);
+                    if(candidates == null) continue;
+                    for(int w : candidates) {
+                        if(scoredBy[w] == id) continue;
+                        scoredBy[w] = id;
+                        titleScores[w] = calcSearchScore(signatures[w], title);
+                    }
+                }
+            }
+            for(int w : singleCharWords) {
+                if(!TitleIndex.isCandidate(signatures[w], title)) continue;
+                scoredBy[w] = id;
+                titleScores[w] = calcSearchScore(signatures[w], title);
+            }
+
+            final int[] wordScores = categoryScores.computeIfAbsent(media.getCategoryMask(id), mask -> {
+                final int[] scores = new int[words.length];
+                for(int w = 0; w < words.length; w++)
+                    scores[w] = calcSearchScore(wordCategoryScores[w], mask);
+                return scores;
+            });
+            final int boost = calcRatingBoost(media.getRating(id), ratingWeight);
+
+            for(int q = 0; q < queries.length; q++) {
+                int score = 0;
+                for(int w : queryWords[q])
+                    score += wordScores[w] + (scoredBy[w] == id ? titleScores[w] : 0);
+                results[q].offer(id, score * ratingScale + boost);
+            }
+        }
+
+        List<List<Media>> lists = new ArrayList<>(queries.length);
+        for(TopScored result : results)
+            lists.add(IntStream.of(result.toSortedIds()).mapToObj(media::get).collect(Collectors.toList()));
+        return lists;
+    }
+
+    /** A bounded heap of the best scored media, with the worst of them at the top.
+     * The score is packed together with the ID, so the heap does not depend on any score array.
+     * Media with equal scores are ordered by the default comparator.
+     */
+    private static final class TopScored {
+        private final MediaStore media;
+        private final int count;
+        private long[] heap;
+        private int size = 0;
+
+        TopScored(MediaStore media, int count) {
+            this.media = media;
+            this.count = Math.max(0, count);
+            this.heap = new long[Math.min(this.count, 16)];
+        }
+
+        /** Compares the packed scores and IDs, where the best come first. */
+        private int compare(long a, long b) {
+            int comparison = Integer.compare((int) (b >> 32), (int) (a >> 32));
+            return comparison != 0 ? comparison : compareDefault(media, (int) a, (int) b);
+        }
+
+        /** Returns whether the heap holds as many media as it can. */
+        boolean isFull() {
+            return size == count;
+        }
+
+        /** Returns the score of the worst media in the heap. <i>The heap must not be empty.</i> */
+        int getWorstScore() {
+            return (int) (heap[0] >> 32);
+        }
+
+        void offer(int id, int score) {
+            long scored = (long) score << 32 | (id & 0xFFFFFFFFL);
+            if(size < count) {
+                if(size == heap.length)
+                    heap = Arrays.copyOf(heap, (int) Math.min(count, size * 2L));
+                int index = size++;
+                while(index > 0 && compare(scored, heap[(index - 1) / 2]) > 0) {
+                    heap[index] = heap[(index - 1) / 2];
+                    index = (index - 1) / 2;
+                }
+                heap[index] = scored;
+            }
+            else if(count > 0 && compare(scored, heap[0]) < 0) {
+                siftDown(scored, size);
+            }
+        }
+
+        /** Puts the packed score and ID at the top of the heap, and moves it down until both its children come before it. */
+        private void siftDown(long scored, int size) {
+            int index = 0;
+            while(true) {
+                int last = index;
+                long lastScored = scored;
+                int left = 2 * index + 1, right = left + 1;
+                if(left < size && compare(heap[left], lastScored) > 0) { last = left; lastScored = heap[left]; }
+                if(right < size && compare(heap[right], lastScored) > 0) { last = right; lastScored = heap[right]; }
+                if(last == index)
+                    break;
+                heap[index] = heap[last];
+                index = last;
+            }
+            heap[index] = scored;
+        }
+
+        /** Empties the heap from the worst to the best.
+         * @return The IDs of the best media, best first.
+         */
+        int[] toSortedIds() {
+            int[] ids = new int[size];
+            for(int i = size - 1; i >= 0; i--) {
+                ids[i] = (int) heap[0];
+                siftDown(heap[i], i);
+            }
+            size = 0;
+            return ids;
+        }
+    }
+
+    /** Compares two media by their IDs. Similar to a {@link Comparator}, but without boxing the IDs. */
+    @FunctionalInterface
+    interface IdComparator {
+        int compare(int a, int b);
+    }
+
+    /** Returns the first IDs of the stream, as if the IDs were sorted by the comparator.
+     * <p> A bounded heap keeps the best IDs seen so far, with the worst of them at the top,
+     * so only {@code O(n log count)} comparisons are made instead of sorting all the IDs.
+     * The heap is then emptied from the worst to the best, which sorts the result.
+     * @param ids The IDs to select from.
+     * @param comparator The comparator deciding which IDs come first.
+     * @param count The maximum number of IDs to return.
+     * @return The first IDs, sorted.
+     */
+    static int[] selectFirst(IntStream ids, IdComparator comparator, int count) {
+        if(count <= 0)
+            return new int[0];
+
+        int[] heap = new int[Math.min(count, 16)];
+        int size = 0;
+        for(PrimitiveIterator.OfInt iterator = ids.iterator(); iterator.hasNext();) {
+            int id = iterator.nextInt();
+            if(size < count) {
+                if(size == heap.length)
+                    heap = Arrays.copyOf(heap, (int) Math.min(count, size * 2L));
+                heap[size] = id;
+                siftUp(heap, size++, comparator);
+            }
+            else if(comparator.compare(id, heap[0]) < 0) {
+                heap[0] = id;
+                siftDown(heap, 0, size, comparator);
+            }
+        }
+
+        int[] result = new int[size];
+        for(int i = size - 1; i >= 0; i--) {
+            result[i] = heap[0];
+            heap[0] = heap[i];
+            siftDown(heap, 0, i, comparator);
+        }
+        return result;
+    }
+
+    /** Moves the ID at the index up the heap, until its parent comes after it. */
+    private static void siftUp(int[] heap, int index, IdComparator comparator) {
+        while(index > 0) {
+            int parent = (index - 1) / 2;
+            if(comparator.compare(heap[index], heap[parent]) <= 0)
+                return;
+            int swap = heap[index]; heap[index] = heap[parent]; heap[parent] = swap;
+            index = parent;
+        }
+    }
+
+    /** Moves the ID at the index down the heap, until both its children come before it. */
+    private static void siftDown(int[] heap, int index, int size, IdComparator comparator) {
+        while(true) {
+            int last = index;
+            int left = 2 * index + 1, right = left + 1;
+            if(left < size && comparator.compare(heap[left], heap[last]) > 0) last = left;
+            if(right < size && comparator.compare(heap[right], heap[last]) > 0) last = right;
+            if(last == index)
+                return;
+            int swap = heap[index]; heap[index] = heap[last]; heap[last] = swap;
+            index = last;
+        }
     }
 
     /** Returns the media that matches the given queries.
      * Searches by title and category, <i>case insensitive</i>.
      * The media is firstly sorted by how well it matches the queries,
      * and then by the default comparator.
-     * <p> Supports concurrent searching of multiple queries,
-     * which might be useful for larger amounts of queries.
-     * Though, due to the small size of the media library,
-     * concurrent searching probably won't be faster.
+     * <p> Supports concurrent searching, where the search mode is chosen based on the size of the search.
      * <p> Uses the cache to avoid searching the same query multiple times.
      * Also caches the results of the search.
+     * @param media The media to search in.
+     * @param index The title index of the media. <i>Must contain exactly the given media.</i>
      * @param queries The queries to search for.
-     * @param media The set of media to search in.
      * @param cache The cache to use.
      * @param useCache Whether to use the cache.
-     * @param parallel Whether to use parallel streams.
+     * @param parallel Whether to allow concurrent searching.
      * @return A sorted list of media that matches the given queries.
      */
-    public static List<Media> sortBySearchQueries(Set<Media> media, String[] queries, SearchCache cache, boolean useCache, boolean parallel) {
+    public static List<Media> sortBySearchQueries(MediaStore media, TitleIndex index, String[] queries, SearchCache cache, boolean useCache, boolean parallel) {
         // Simply an overload of the method above.
-        return sortBySearchQueries(media, queries, cache, media.size(), useCache, parallel);
+        return sortBySearchQueries(media, index, queries, cache, media.size(), useCache, parallel);
+    }
+
+    /** Returns the media whose titles contain a word within the given edit distance of every query.
+     * Searches by title only, <i>case insensitive</i>.
+     * <p> Unlike {@link #sortBySearchQueries(MediaStore, TitleIndex, String[], SearchCache, int, boolean, boolean)},
+     * media that do not match a query are left out, instead of being ranked last.
+     * The media is firstly sorted by the sum of the edit distances to the queries (fewest edits first),
+     * and then by the default comparator.
+     * <p> The matching media of each query are found in the vocabulary, see {@link TitleVocabulary#findWithin(String, int)},
+     * so only the matching media are looked at.
+     * @param media The media to search in.
+     * @param vocabulary The title vocabulary of the media. <i>Must contain exactly the given media.</i>
+     * @param queries The queries to search for.
+     * @param maxDistance The maximum edit distance between a query and a title word.
+     * @param count The number of results to return.
+     * @return A sorted list of the matching media.
+     */
+    public static List<Media> sortByFuzzySearch(MediaStore media, TitleVocabulary vocabulary, String[] queries, int maxDistance, int count) {
+        // The media matching every query so far, and the sum of their distances.
+        TitleScores matches = null;
+        for(String query : queries) {
+            if(query.isEmpty()) continue;
+            TitleScores next = vocabulary.findWithin(query.toLowerCase(), maxDistance);
+            matches = matches == null ? next : intersect(matches, next);
+        }
+        if(matches == null)
+            return List.of();
+
+        final TitleScores distances = matches;
+        final IdComparator distanceComparator = (a, b) -> {
+            int comparison = Integer.compare(distances.getScore(a), distances.getScore(b));
+            return comparison != 0 ? comparison : compareDefault(media, distances.getId(a), distances.getId(b));
+        };
+
+        // Select and sort the best results by their index in the matches.
+        return IntStream.of(selectFirst(IntStream.range(0, distances.size()), distanceComparator, count))
+                        .mapToObj(i -> media.get(distances.getId(i)))
+                        .collect(Collectors.toList());
+    }
+
+    /** Returns the IDs that are in both scores, with the sum of their scores.
+     * Both IDs are sorted, so they are merged in a single pass.
+     */
+    private static TitleScores intersect(TitleScores a, TitleScores b) {
+        int[] ids = new int[Math.min(a.size(), b.size())];
+        int[] scores = new int[ids.length];
+        int size = 0;
+        for(int i = 0, j = 0; i < a.size() && j < b.size();) {
+            if(a.getId(i) < b.getId(j)) i++;
+            else if(a.getId(i) > b.getId(j)) j++;
+            else {
+                ids[size] = a.getId(i);
+                scores[size++] = a.getScore(i++) + b.getScore(j++);
+            }
+        }
+        return new TitleScores(Arrays.copyOf(ids, size), Arrays.copyOf(scores, size));
     }
 
-    /** Returns an integer score representing how well the target string matches the query string.
-     * <i> The strings should be in lowercase and trimmed. (Meaning no leading or trailing whitespace)</i>
+    /** Returns an integer score representing how well the target word matches the query word.
+     * The words are given as signatures, which are precomputed so scoring allocates nothing.
      * <p> Scoring: <ul>
      * <li> +1 for each shared character. <i>(Not necessarily at the same index)</i>
      * <li> +1 for each two characters that are next to each other in both strings.
@@ -245,73 +1232,33 @@ public class MediaSorting {
      * <li> +3 if the first character of both strings match.
      * <li> +3 if the last character of both strings match.
      * <p> The returned score is the sum of the scoring rules.
-     * TODO: Maybe higher rated movies should also be prioritized?
-     * @param query The string to search for. <i>Should be single lowercase word</i>.
-     * @param target The string to search in.
-     * @return Whether the string contains the search string.
+     * Higher rated media can be prioritized by a rating weight, see {@link #calcRatingBoost(float, float)}.
+     * @param query The signature of the word to search for. <i>Should be single lowercase word</i>.
+     * @param target The signature of the word to search in.
+     * @return The search score.
      */
-    private static int calcSearchScore(String query, String target) {
+    static int calcSearchScore(WordSignature query, WordSignature target) {
         // If any of the strings are empty, return 0.
-        if(query.isEmpty() || target.isEmpty())
+        if(query.length == 0 || target.length == 0)
             return 0;
 
         int score = 0;
 
         // Check if strings are same length
-        if(query.length() == target.length())
+        if(query.length == target.length)
             score += 2;
 
         // Check if first characters match
-        if(query.charAt(0) == target.charAt(0))
+        if(query.first == target.first)
             score += 3;
 
         // Check if last characters match
-        if(query.charAt(query.length() - 1) == target.charAt(target.length() - 1))
+        if(query.last == target.last)
             score += 3;
 
         // Check for shared characters and shared character pairs
-        {   
-            // Stores which characters that have been used
-            Set<Character> queryChars = new HashSet<>();
-            Set<Character> targetChars = new HashSet<>();
-
-            // Stores which character pairs that have been used
-            record Pair(char a, char b) {}
-            Set<Pair> queryPairs = new HashSet<>();
-            Set<Pair> targetPairs = new HashSet<>();
-
-            // Add the first character of each string to the character sets
-            queryChars.add(query.charAt(0));
-            targetChars.add(target.charAt(0));
-
-            // Loop through the query string
-            for(int i = 1; i < query.length(); i++) {
-                // Add the current character
-                queryChars.add(query.charAt(i));
-
-                // Add the current character pair
-                queryPairs.add(new Pair(query.charAt(i-1), query.charAt(i)));
-            }
-
-            // Loop through the target string
-            for(int i = 1; i < target.length(); i++) {
-                // Add the current character
-                targetChars.add(target.charAt(i));
-
-                // Add the current character pair
-                targetPairs.add(new Pair(target.charAt(i-1), target.charAt(i)));
-            }
-        
-            // Check for shared characters
-            for(char c : queryChars)
-                if(targetChars.contains(c))
-                    score++;
-
-            // Check for shared character pairs
-            for(Pair p : queryPairs)
-                if(targetPairs.contains(p))
-                    score++;
-        }
+        score += query.countSharedChars(target);
+        score += query.countSharedPairs(target);
 
         return score;
     }
@@ -354,16 +1301,132 @@ public class MediaSorting {
      * @return A sorted list of media.
      */
     public static List<Media> sortMedia(Collection<Media> media, SortBy sortBy, SortOrder sortOrder) {
-        Comparator<Media> comparator = switch (sortBy) {
-            case TITLE -> Comparator.comparing(m -> m.title); // Alphabeticallly
-            case RELEASE_YEAR -> Comparator.comparingInt((ToIntFunction<Media>)m -> m.releaseYear).reversed(); // Newest first.
-            case RATING -> Comparator.comparingDouble((ToDoubleFunction<Media>)m -> m.rating).reversed(); // Highest first.
-            case DEFAULT -> defaultComparator;
-        };
+        if(sortBy == SortBy.RELEASE_YEAR || sortBy == SortBy.RATING) {
+            // Packs the field and the index of each media into a long, and sorts the longs. See sortIds(MediaStore, SortBy).
+            final Media[] array = media.toArray(Media[]::new);
+            final long[] keys = new long[array.length];
+            IntStream.range(0, array.length).parallel().forEach(i ->
+                keys[i] = (long) (sortBy == SortBy.RELEASE_YEAR ? toSortKey(array[i].releaseYear) : toSortKey(array[i].rating)) << 32 | i);
+            Arrays.parallelSort(keys);
+            return IntStream.range(0, keys.length).parallel()
+                            .mapToObj(i -> array[(int) keys[sortOrder == SortOrder.REVERSE ? keys.length - 1 - i : i]])
+                            .collect(Collectors.toList());
+        }
 
+        Comparator<TitleKeyed> comparator = sortBy == SortBy.TITLE ? titleComparator : defaultComparator; // Alphabeticallly, in Danish.
         if (sortOrder == SortOrder.REVERSE) comparator = comparator.reversed();
 
-        return media.stream().sorted(comparator).collect(Collectors.toList());
+        // Decorates each media with the collation key of its title, sorts them by the keys, and takes the media back out.
+        final TitleKeyed[] keyed = media.parallelStream().map(m -> new TitleKeyed(m, MediaStore.toTitleKey(m.title))).toArray(TitleKeyed[]::new);
+        Arrays.parallelSort(keyed, comparator);
+        return Stream.of(keyed).map(TitleKeyed::media).collect(Collectors.toList());
+    }
+
+    /** Returns the media of the store sorted in the given order.
+     * Same as {@link #sortMedia(Collection, SortBy, SortOrder)},
+     * but sorts the IDs by the columns of the store, and only creates the media once they are sorted.
+     * @param media The media to sort.
+     * @param sortBy The property to sort by.
+     * @param sortOrder The order to sort in.
+     * @return A sorted list of media.
+     */
+    public static List<Media> sortMedia(MediaStore media, SortBy sortBy, SortOrder sortOrder) {
+        final int[] ids = sortIds(media, sortBy);
+        return IntStream.range(0, ids.length).parallel()
+                        .mapToObj(i -> media.get(ids[sortOrder == SortOrder.REVERSE ? ids.length - 1 - i : i]))
+                        .collect(Collectors.toList());
+    }
+
+    /** Returns the IDs of all the media in the store, sorted by the given property in the default order,
+     * where media that compare as equal are sorted by their IDs.
+     * <p> When sorting by release year or rating, the field of each media is packed into the high bits of a long
+     * and its ID into the low bits, see {@link #toSortKey(int)} and {@link #toSortKey(float)}.
+     * The longs are then sorted with {@link Arrays#parallelSort(long[])}, which compares primitives on all cores
+     * instead of calling a comparator, and the IDs are read back from the low bits.
+     * <p> Titles do not fit in a long, so the other properties are sorted by their comparators.
+     * @param media The media to sort.
+     * @param sortBy The property to sort by.
+     * @return The sorted IDs.
+     */
+    static int[] sortIds(MediaStore media, SortBy sortBy) {
+        final int[] ids = media.ids().toArray();
+        if(sortBy != SortBy.RELEASE_YEAR && sortBy != SortBy.RATING) {
+            final IdComparator comparator = getComparator(media, sortBy);
+            return selectFirst(IntStream.of(ids), (a, b) -> {
+                int comparison = comparator.compare(a, b);
+                return comparison != 0 ? comparison : Integer.compare(a, b);
+            }, ids.length);
+        }
+
+        final long[] keys = new long[ids.length];
+        IntStream.range(0, ids.length).parallel().forEach(i -> {
+            final int id = ids[i];
+            final int key = sortBy == SortBy.RELEASE_YEAR ? toSortKey(media.getReleaseYear(id)) : toSortKey(media.getRating(id));
+            keys[i] = (long) key << 32 | id;
+        });
+        Arrays.parallelSort(keys);
+        for(int i = 0; i < keys.length; i++)
+            ids[i] = (int) keys[i];
+        return ids;
+    }
+
+    /** Returns an int which sorts in the opposite order of the release year, so the newest come first. */
+    private static int toSortKey(int releaseYear) {
+        return ~releaseYear;
+    }
+
+    /** Returns an int which sorts in the opposite order of the rating, like {@link Float#compare(float, float)}, so the highest come first.
+     * The bits of a negative float are flipped, except the sign, so the bits of all floats sort like ints.
+     */
+    private static int toSortKey(float rating) {
+        final int bits = Float.floatToIntBits(rating);
+        return ~(bits ^ (bits >> 31) & 0x7FFFFFFF);
+    }
+
+    /** Returns a page of the media of the store sorted in the given order.
+     * Same as {@link #sortMedia(MediaStore, SortBy, SortOrder)},
+     * but only the media up to the end of the page are selected and sorted, and only the media on the page are created.
+     * @param media The media to sort.
+     * @param sortBy The property to sort by.
+     * @param sortOrder The order to sort in.
+     * @param offset The number of media to skip.
+     * @param limit The maximum number of media to return.
+     * @return A sorted list of at most {@code limit} media.
+     * @throws IllegalArgumentException If the offset or the limit is negative.
+     */
+    public static List<Media> sortMedia(MediaStore media, SortBy sortBy, SortOrder sortOrder, int offset, int limit) {
+        checkPage(offset, limit);
+        IdComparator comparator = getComparator(media, sortBy);
+
+        if (sortOrder == SortOrder.REVERSE) {
+            final IdComparator forward = comparator;
+            comparator = (a, b) -> forward.compare(b, a);
+        }
+
+        int[] ids = selectFirst(media.ids(), comparator, (int) Math.min((long) offset + limit, media.size()));
+        return IntStream.range(Math.min(offset, ids.length), ids.length)
+                        .mapToObj(i -> media.get(ids[i]))
+                        .collect(Collectors.toList());
+    }
+
+    /** Throws an exception if the offset or the limit of a page is negative. */
+    static void checkPage(int offset, int limit) {
+        if(offset < 0 || limit < 0)
+            throw new IllegalArgumentException("The offset and limit of a page must not be negative, but were " + offset + " and " + limit + ".");
+    }
+
+    /** Returns a comparator that compares the media of the store by the given property, in the default order.
+     * @param media The store containing the media.
+     * @param sortBy The property to compare by.
+     * @return The comparator of the IDs.
+     */
+    static IdComparator getComparator(MediaStore media, SortBy sortBy) {
+        return switch (sortBy) {
+            case TITLE -> media::compareTitles; // Alphabeticallly, in Danish.
+            case RELEASE_YEAR -> (a, b) -> Integer.compare(media.getReleaseYear(b), media.getReleaseYear(a)); // Newest first.
+            case RATING -> (a, b) -> Float.compare(media.getRating(b), media.getRating(a)); // Highest first.
+            case DEFAULT -> (a, b) -> compareDefault(media, a, b);
+        };
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,254 @@
+package Code.Logic;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import Code.Data.Media;
+import Code.Data.MediaStore;
+import Code.Logic.MediaSorting.IdComparator;
+import Code.Logic.MediaSorting.SortBy;
+import Code.Logic.MediaSorting.SortOrder;
+
+/** The IDs of the media sorted by each {@link SortBy}, kept sorted as media are added and removed.
+ * Could be visualized like this:
+ * <p> {@code Array: SortBy -> (Sorted array: media ID)}.
+ * <p> Used to sort the media without sorting them again every time, see {@link #sortMedia(SortBy, SortOrder)}.
+ * {@link SortOrder#REVERSE} reads the same array backwards.
+ * <p> Media that compare as equal are ordered by their IDs, so every media has exactly one position in each array,
+ * which is found by binary search when the media is added or removed.
+ * <p> The media are identified by their IDs in a {@link MediaStore}.
+ * <p><i> The index should be updated whenever the media library is modified.</i>
+ */
+public class SortIndex {
+
+    private final MediaStore store;
+
+    /** The comparators of each {@link SortBy}, indexed by ordinal. Equal media are compared by ID. */
+    private final IdComparator[] comparators;
+
+    /** The sorted IDs for each {@link SortBy}, indexed by ordinal. */
+    private final int[][] sorted;
+    private int size = 0;
+
+    /** Creates an index of all the media in the given store, which is sorted once by each property.
+     * @param store The media to sort. <i>The index should be kept in sync with the store.</i>
+     */
+    public SortIndex(MediaStore store) {
+        this.store = store;
+        this.comparators = new IdComparator[SortBy.values().length];
+        this.sorted = new int[comparators.length][];
+        for(SortBy sortBy : SortBy.values()) {
+            final IdComparator comparator = MediaSorting.getComparator(store, sortBy);
+            comparators[sortBy.ordinal()] = (a, b) -> {
+                int comparison = comparator.compare(a, b);
+                return comparison != 0 ? comparison : Integer.compare(a, b);
+            };
+        }
+        build();
+    }
+
+    /** Sorts all the media in the store by each property again. See {@link MediaSorting#sortIds(MediaStore, SortBy)}. */
+    private void build() {
+        size = store.size();
+        for(SortBy sortBy : SortBy.values()) {
+            int[] ids = MediaSorting.sortIds(store, sortBy);
+            sorted[sortBy.ordinal()] = Arrays.copyOf(ids, Math.max(16, size));
+        }
+    }
+
+    /** Adds the media with the given ID at its position in each order.
+     * Does nothing if the media is already in the index.
+     * @param id The ID of the media. <i>Must already be in the store.</i>
+     * @throws IllegalStateException If the orders disagree about whether the media is in the index.
+     */
+    public void add(int id) {
+        // Whether the media is in the index is decided once, by the default order, so the orders cannot be left with different sizes.
+        if(find(SortBy.DEFAULT.ordinal(), id) >= 0)
+            return;
+        for(int i = 0; i < sorted.length; i++) {
+            int index = find(i, id);
+            if(index >= 0)
+                throw new IllegalStateException("The media with ID " + id + " is only in some of the orders.");
+            index = -index - 1;
+
+            if(size == sorted[i].length)
+                sorted[i] = Arrays.copyOf(sorted[i], size * 2);
+            System.arraycopy(sorted[i], index, sorted[i], index + 1, size - index);
+            sorted[i][index] = id;
+        }
+        size++;
+    }
+
+    /** Removes the media with the given ID from each order.
+     * Does nothing if the media is not in the index.
+     * @param id The ID of the media. <i>Must still be in the store, since its position is found by comparing it.</i>
+     * @throws IllegalStateException If the orders disagree about whether the media is in the index.
+     */
+    public void remove(int id) {
+        if(find(SortBy.DEFAULT.ordinal(), id) < 0)
+            return;
+        for(int i = 0; i < sorted.length; i++) {
+            int index = find(i, id);
+            if(index < 0)
+                throw new IllegalStateException("The media with ID " + id + " is only in some of the orders.");
+            System.arraycopy(sorted[i], index + 1, sorted[i], index, size - index - 1);
+        }
+        size--;
+    }
+
+    /** Clears the index. */
+    public void clear() {
+        size = 0;
+    }
+
+    /** Returns the position of the ID in the order, or {@code -(insertion point) - 1} if it is not there. */
+    private int find(int order, int id) {
+        final int[] ids = sorted[order];
+        final IdComparator comparator = comparators[order];
+        int low = 0, high = size - 1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = comparator.compare(ids[middle], id);
+            if(comparison < 0) low = middle + 1;
+            else if(comparison > 0) high = middle - 1;
+            else return middle;
+        }
+        return -low - 1;
+    }
+
+    /** Returns the number of media in the index.
+     * @return The number of media.
+     */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the ID at the given position in the order.
+     * @param sortBy The property to sort by.
+     * @param sortOrder The order to sort in. {@link SortOrder#REVERSE} counts the positions from the end.
+     * @param position The position. <i>Must be less than {@link #size()}.</i>
+     * @return The ID of the media at the position.
+     */
+    public int getId(SortBy sortBy, SortOrder sortOrder, int position) {
+        return sorted[sortBy.ordinal()][sortOrder == SortOrder.REVERSE ? size - 1 - position : position];
+    }
+
+    /** Returns the IDs of the media accepted by the filter, found in the range of the filter in the given order.
+     * <p> The media released in a range of years, or rated in a range, are next to each other
+     * in the {@link SortBy#RELEASE_YEAR} and {@link SortBy#RATING} orders, and their positions are found by binary search.
+     * Only the media in the range are looked at, so this takes {@code O(log n + matches)}.
+     * The rest of the filter is tested on each of them.
+     * @param filter The filter to use.
+     * @param sortBy The order to find the range in, either {@link SortBy#RELEASE_YEAR} or {@link SortBy#RATING}.
+     * @return The IDs of the accepted media, in no particular order.
+     */
+    public int[] findIds(MediaFilter filter, SortBy sortBy) {
+        final int[] range = findRange(filter, sortBy);
+        final int[] ids = sorted[sortBy.ordinal()];
+        return IntStream.range(range[0], range[1])
+                        .map(position -> ids[position])
+                        .filter(id -> filter.test(store, id))
+                        .toArray();
+    }
+
+    /** Returns the number of media {@link #findIds(MediaFilter, SortBy)} looks at, without looking at them.
+     * @param filter The filter to use.
+     * @param sortBy The order to find the range in, either {@link SortBy#RELEASE_YEAR} or {@link SortBy#RATING}.
+     * @return The number of media in the range of the filter.
+     */
+    public int countRange(MediaFilter filter, SortBy sortBy) {
+        final int[] range = findRange(filter, sortBy);
+        return range[1] - range[0];
+    }
+
+    /** Returns the start and end position of the year range or the rating range of the filter. */
+    private int[] findRange(MediaFilter filter, SortBy sortBy) {
+        final int order = sortBy.ordinal();
+        int start = 0, end = size;
+        switch (sortBy) {
+            case RELEASE_YEAR -> {
+                // Newest first, so the media released before the first year come last.
+                start = findFirst(order, id -> store.getReleaseYear(id) <= filter.toYear);
+                end = findFirst(order, id -> store.getReleaseYear(id) < filter.fromYear);
+            }
+            case RATING -> {
+                // Highest first, so the media rated below the lowest rating come last.
+                start = findFirst(order, id -> store.getRating(id) <= filter.maxRating);
+                end = findFirst(order, id -> store.getRating(id) < filter.minRating);
+            }
+            default -> throw new IllegalArgumentException("Can only find ranges of release years or ratings, not " + sortBy + ".");
+        }
+        return new int[] {start, Math.max(start, end)};
+    }
+
+    /** Returns the first position in the order whose media passes the test, or {@link #size()} if none pass.
+     * <i>The test must fail for all the media before some position, and pass for all the media after it.</i>
+     */
+    private int findFirst(int order, IntPredicate test) {
+        final int[] ids = sorted[order];
+        int low = 0, high = size;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(test.test(ids[middle])) high = middle;
+            else low = middle + 1;
+        }
+        return low;
+    }
+
+    /** Returns some of the media sorted in the given order, a page at a time.
+     * Only the media up to the end of the page are selected and sorted.
+     * <p> The media can also be counted in facets while they are selected, so they are not looked at again.
+     * @param ids The IDs of the media to sort, for example found by {@link FilterPlanner#findIds(MediaStore, SortIndex, CategoryIndex, MediaFilter)}.
+     * @param sortBy The property to sort by.
+     * @param sortOrder The order to sort in.
+     * @param offset The number of media to skip.
+     * @param limit The maximum number of media to return.
+     * @param facets The facets to count the media in, or {@code null} to not count them.
+     * @return A sorted list of at most {@code limit} media.
+     * @throws IllegalArgumentException If the offset or the limit is negative.
+     */
+    public List<Media> sortMedia(int[] ids, SortBy sortBy, SortOrder sortOrder, int offset, int limit, Facets facets) {
+        MediaSorting.checkPage(offset, limit);
+
+        IdComparator comparator = comparators[sortBy.ordinal()];
+        if(sortOrder == SortOrder.REVERSE) {
+            final IdComparator forward = comparator;
+            comparator = (a, b) -> forward.compare(b, a);
+        }
+
+        final IntStream stream = facets == null ? IntStream.of(ids) : IntStream.of(ids).map(id -> { facets.add(store, id); return id; });
+        final int[] first = MediaSorting.selectFirst(stream, comparator, (int) Math.min((long) offset + limit, ids.length));
+        return IntStream.range(Math.min(offset, first.length), first.length)
+                        .mapToObj(i -> store.get(first[i]))
+                        .collect(Collectors.toList());
+    }
+
+    /** Returns the media sorted in the given order, without sorting them.
+     * @param sortBy The property to sort by.
+     * @param sortOrder The order to sort in.
+     * @return A sorted list of media.
+     */
+    public List<Media> sortMedia(SortBy sortBy, SortOrder sortOrder) {
+        return sortMedia(sortBy, sortOrder, 0, size);
+    }
+
+    /** Returns a page of the media sorted in the given order, without sorting them.
+     * Only the media on the page are read, so any page takes the same time.
+     * @param sortBy The property to sort by.
+     * @param sortOrder The order to sort in.
+     * @param offset The number of media to skip.
+     * @param limit The maximum number of media to return.
+     * @return A sorted list of at most {@code limit} media.
+     * @throws IllegalArgumentException If the offset or the limit is negative.
+     */
+    public List<Media> sortMedia(SortBy sortBy, SortOrder sortOrder, int offset, int limit) {
+        MediaSorting.checkPage(offset, limit);
+        return IntStream.range(Math.min(offset, size), (int) Math.min((long) offset + limit, size))
+                        .map(position -> getId(sortBy, sortOrder, position))
+                        .mapToObj(store::get)
+                        .collect(Collectors.toList());
+    }
+
+}
@@ -1,9 +1,36 @@
 package Code.Logic;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.platform.commons.util.ReflectionUtils;
 
+import Code.Data.Media;
+import Code.Data.Media.Category;
+import Code.Data.MediaStore;
+
 public class Testing {
     
     @Nested
@@ -51,4 +78,649 @@ public class Testing {
         }
 
     }
+
+    @Nested
+    class TestMediaSorting {
+
+        MediaLibrary library;
+
+        @BeforeEach
+        void readLibrary() throws Exception {
+            library = MediaLibrary.readMediaLibrary("./Data/film.txt", "./Data/serier.txt");
+        }
+
+        /** The search score as it was computed before word signatures, with sets of characters and character pairs. */
+        private int calcReferenceScore(String query, String target) {
+            if(query.isEmpty() || target.isEmpty())
+                return 0;
+
+            int score = 0;
+            if(query.length() == target.length()) score += 2;
+            if(query.charAt(0) == target.charAt(0)) score += 3;
+            if(query.charAt(query.length() - 1) == target.charAt(target.length() - 1)) score += 3;
+
+            record Pair(char a, char b) {}
+            Set<Character> queryChars = new HashSet<>(), targetChars = new HashSet<>();
+            Set<Pair> queryPairs = new HashSet<>(), targetPairs = new HashSet<>();
+            for(int i = 0; i < query.length(); i++) {
+                queryChars.add(query.charAt(i));
+                if(i > 0) queryPairs.add(new Pair(query.charAt(i - 1), query.charAt(i)));
+            }
+            for(int i = 0; i < target.length(); i++) {
+                targetChars.add(target.charAt(i));
+                if(i > 0) targetPairs.add(new Pair(target.charAt(i - 1), target.charAt(i)));
+            }
+            for(char c : queryChars)
+                if(targetChars.contains(c)) score++;
+            for(Pair pair : queryPairs)
+                if(targetPairs.contains(pair)) score++;
+            return score;
+        }
+
+        @Test
+        void signatureScoreMatchesReference() {
+            // ASCII letters and digits, the edges of the ASCII masks, and characters above 127 which are stored outside the masks.
+            String alphabet = "abcdeot09?@\u007f\u0080\u00e6\u00f8\u00e5\u00fc\u0436\u4e2d\uffff";
+            Random random = new Random(2);
+            List<String> words = new ArrayList<>(List.of("", "a", "\u00e5", "\u4e2d", "aa", "godfather", "\u00e6bler"));
+            for(int i = 0; i < 400; i++) {
+                StringBuilder word = new StringBuilder();
+                for(int length = random.nextInt(9); length > 0; length--)
+                    word.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                words.add(word.toString());
+            }
+
+            for(String query : words)
+                for(String target : words)
+                    assertEquals(calcReferenceScore(query, target), MediaSorting.calcSearchScore(WordSignature.of(query), WordSignature.of(target)),
+                                 () -> "Query '" + query + "' and target '" + target + "'");
+        }
+
+        @Test
+        void searchExactTitleFirst() {
+            List<Media> result = library.sortBySearch("godfather", 2, false, false);
+
+            assertEquals("The Godfather", result.get(0).title);
+            assertEquals("The Godfather part II", result.get(1).title);
+        }
+
+        @Test
+        void searchRanksOnlyCandidates() {
+            // Titles sharing no character pair with a query word get no title score for it. Scoring every title ranked
+            // "The Bridge Over The River Kwai" sixth, from single characters shared with "star", but no word of it shares a pair with "star".
+            List<String> expected = List.of("Star Wars", "The Civil War", "Dr. Strangelove Or How I Learned To Stop Worrying And Love The Bomb",
+                                            "Star Trek", "The Best Years Of Our Lives", "The Searchers", "Spartacus", "The Great Dictator");
+            assertEquals(expected, library.sortBySearch("star wars", 8, false, false).stream().map(m -> m.title).collect(Collectors.toList()));
+        }
+
+        @Test
+        void searchTopIsPrefixOfFullSearch() {
+            for(String query : new String[] {"the", "star wars", "crime drama", "x"}) {
+                List<Media> full = library.sortBySearch(query, false, false);
+
+                for(int count : new int[] {1, 5, 20})
+                    assertEquals(full.subList(0, count), library.sortBySearch(query, count, false, false));
+            }
+        }
+
+        @Test
+        void searchCacheStatistics() {
+            library.sortBySearch("godfather", 10, true, false);
+            library.sortBySearch("godfather", 10, true, false);
+
+            MediaSorting.SearchCache.Statistics statistics = library.getSearchCacheStatistics();
+            assertEquals(1, statistics.hits());
+            assertEquals(1, statistics.misses());
+            assertEquals(1, statistics.entries());
+        }
+
+        @Test
+        void searchCacheEviction() {
+            MediaStore media = new MediaStore(library.sortBy(MediaSorting.SortBy.DEFAULT, MediaSorting.SortOrder.DEFAULT));
+            TitleIndex index = new TitleIndex(media);
+            MediaSorting.SearchCache cache = new MediaSorting.SearchCache(2, 1000, MediaSorting.SearchCache.Eviction.LEAST_RECENTLY_USED);
+
+            MediaSorting.sortBySearchQueries(media, index, new String[] {"star", "wars", "star", "trek"}, cache, 10, true, false);
+
+            // "wars" was used least recently, so it was evicted
+            MediaSorting.SearchCache.Statistics statistics = cache.getStatistics();
+            assertEquals(1, statistics.evictions());
+            assertEquals(2, statistics.entries());
+            MediaSorting.sortBySearchQueries(media, index, new String[] {"star"}, cache, 10, true, false);
+            assertEquals(2, cache.getStatistics().hits());
+        }
+
+        @Test
+        void searchCacheBoundsOfLibrary(@TempDir Path directory) throws Exception {
+            // The weight of the default cache follows the library, so a few common words do not evict each other.
+            StringBuilder movies = new StringBuilder();
+            for(int i = 0; i < 100000; i++)
+                movies.append("The Star Godfather ").append(i).append("; 2000; Drama; 8,0; \n");
+            Path moviePath = Files.writeString(directory.resolve("movies.txt"), movies);
+            Path seriesPath = Files.writeString(directory.resolve("series.txt"), "Twin Peaks; 1990-1991; Crime, Drama, Mystery; 8,8; 1-8, 2-22; \n");
+            MediaLibrary large = MediaLibrary.readMediaLibrary(moviePath.toString(), seriesPath.toString());
+            for(String query : new String[] {"the", "star", "godfather"})
+                large.sortBySearch(query, 10, true, false);
+            assertEquals(0, large.getSearchCacheStatistics().evictions());
+            assertEquals(3, large.getSearchCacheStatistics().entries());
+
+            // Given bounds are kept as they are.
+            MediaLibrary bounded = new MediaLibrary(2, 1 << 18);
+            bounded.readFiles("./Data/film.txt", "./Data/serier.txt");
+            for(String query : new String[] {"the", "star", "godfather"})
+                bounded.sortBySearch(query, 10, true, false);
+            assertEquals(1, bounded.getSearchCacheStatistics().evictions());
+            assertEquals(2, bounded.getSearchCacheStatistics().entries());
+        }
+
+        @Test
+        void searchCacheSingleFlight() throws Exception {
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Callable<List<Media>>> searches = Collections.nCopies(8, () -> library.sortBySearch("godfather", 10, true, true));
+            for(Future<List<Media>> result : executor.invokeAll(searches))
+                assertEquals("The Godfather", result.get().get(0).title);
+            executor.shutdown();
+
+            // Only the first search scores the titles, every other search uses its result
+            assertEquals(1, library.getSearchCacheStatistics().misses());
+            assertEquals(7, library.getSearchCacheStatistics().hits());
+        }
+
+        @Test
+        void searchModesAgree() {
+            MediaStore media = new MediaStore(library.sortBy(MediaSorting.SortBy.DEFAULT, MediaSorting.SortOrder.DEFAULT));
+            TitleIndex index = new TitleIndex(media);
+            String[] queries = {"the", "star", "wars", "crime"};
+
+            List<Media> expected = MediaSorting.sortBySearchQueries(media, index, queries, null, 30, false, MediaSorting.SearchMode.SEQUENTIAL);
+            for(MediaSorting.SearchMode mode : MediaSorting.SearchMode.values())
+                assertEquals(expected, MediaSorting.sortBySearchQueries(media, index, queries, null, 30, false, mode));
+        }
+
+        @Test
+        void titleIndexCandidates() {
+            MediaStore media = new MediaStore(library.sortBy(MediaSorting.SortBy.DEFAULT, MediaSorting.SortOrder.DEFAULT));
+            TitleIndex index = new TitleIndex(media);
+            Set<Integer> candidates = IntStream.of(index.getCandidates("godfather")).boxed().collect(Collectors.toSet());
+
+            // Every candidate shares a character pair with the query
+            assertFalse(candidates.isEmpty());
+            candidates.forEach(id -> assertTrue(media.get(id).title.toLowerCase().matches(".*(go|od|df|fa|at|th|he|er).*")));
+
+            // Every title sharing a character pair with the query is a candidate
+            media.stream()
+                 .filter(m -> m.title.toLowerCase().contains("er"))
+                 .forEach(m -> assertTrue(candidates.contains(media.getId(m))));
+        }
+
+        @Test
+        void searchAfterRemove() {
+            Media godfather = library.sortBySearch("godfather", 1, true, false).get(0);
+            library.remove(godfather);
+
+            assertNotEquals(godfather, library.sortBySearch("godfather", 1, true, false).get(0));
+        }
+
+        @Test
+        void denseIdsReusedAfterRemove() throws Exception {
+            MediaStore store = (MediaStore) ReflectionUtils.tryToReadFieldValue(MediaLibrary.class, "library", library).get();
+            // Every media read from the files has an ID below the number of media.
+            assertArrayEquals(IntStream.range(0, store.size()).toArray(), store.ids().toArray());
+
+            String[] queries = {"godfather", "the war", "star", "a"};
+            List<List<Media>> expected = Stream.of(queries).map(q -> library.sortBySearch(q, 20, false, false)).collect(Collectors.toList());
+            Stream.of(queries).forEach(q -> library.sortBySearch(q, 20, true, false));
+
+            Media godfather = expected.get(0).get(0);
+            int id = store.getId(godfather);
+            library.remove(godfather);
+            assertEquals(-1, store.getId(godfather));
+            library.add(godfather);
+            assertEquals(id, store.getId(godfather));
+
+            // The reused ID scores like the removed media, with and without the cache.
+            for(int i = 0; i < queries.length; i++) {
+                assertEquals(expected.get(i), library.sortBySearch(queries[i], 20, false, false));
+                assertEquals(expected.get(i), library.sortBySearch(queries[i], 20, true, false));
+            }
+        }
+
+        @Test
+        void titleScoresSortedArrays() {
+            TitleScores scores = new TitleScores(new int[] {2, 5, 9}, new int[] {20, 50, 90});
+            TreeMap<Integer, Integer> expected = new TreeMap<>(Map.of(2, 20, 5, 50, 9, 90));
+            Random random = new Random(8);
+            for(int i = 0; i < 2000; i++) {
+                int id = random.nextInt(500);
+                if(random.nextInt(3) == 0)
+                    assertEquals(expected.remove(id) != null, scores.remove(id));
+                else {
+                    scores.put(id, i);
+                    expected.put(id, i);
+                }
+            }
+
+            // The IDs stay sorted, with their scores at the same index.
+            assertEquals(expected.size(), scores.size());
+            int index = 0;
+            for(Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+                assertEquals(entry.getKey(), scores.getId(index));
+                assertEquals(entry.getValue(), scores.getScore(index++));
+            }
+
+            // Only the scores in the range are added.
+            int[] target = new int[500];
+            Arrays.fill(target, 1);
+            scores.addTo(target, 100, 300);
+            for(int id = 0; id < target.length; id++)
+                assertEquals(1 + (id >= 100 && id < 300 ? expected.getOrDefault(id, 0) : 0), target[id]);
+        }
+
+        @Test
+        void searchCacheUpdatedOnAddAndRemove() {
+            List<Media> expected = library.sortBySearch("godfather wars", 20, false, false);
+            Media godfather = expected.get(0);
+
+            library.sortBySearch("godfather wars", 20, true, false);
+            library.remove(godfather);
+            assertEquals(library.sortBySearch("godfather wars", 20, false, false), library.sortBySearch("godfather wars", 20, true, false));
+            library.add(godfather);
+            assertEquals(expected, library.sortBySearch("godfather wars", 20, true, false));
+
+            // The cached results were updated, not scored again
+            assertEquals(2, library.getSearchCacheStatistics().misses());
+            assertEquals(4, library.getSearchCacheStatistics().hits());
+        }
+
+        @Test
+        void suggestPrefix() {
+            for(String prefix : new String[] {"t", "th", "the", "thE", "s", "st", "sta", "star", "stars", "x"}) {
+                String lower = prefix.toLowerCase();
+                List<String> expected =
+                    library.sortBy(MediaSorting.SortBy.RATING, MediaSorting.SortOrder.DEFAULT).stream()
+                           .filter(m -> List.of(m.title.toLowerCase().split(" ")).stream().anyMatch(w -> w.startsWith(lower)))
+                           .map(m -> m.rating)
+                           .limit(10)
+                           .map(Object::toString).collect(Collectors.toList());
+                List<Media> actual = library.suggest(prefix, 10);
+
+                assertEquals(expected, actual.stream().map(m -> m.rating).map(Object::toString).collect(Collectors.toList()));
+                actual.forEach(m -> assertTrue(List.of(m.title.toLowerCase().split(" ")).stream().anyMatch(w -> w.startsWith(lower))));
+            }
+
+            Media godfather = library.suggest("godfather", 1).get(0);
+            library.remove(godfather);
+            assertFalse(library.suggest("godf", 10).contains(godfather));
+            library.add(godfather);
+            assertEquals(godfather, library.suggest("godf", 1).get(0));
+        }
+
+        @Test
+        void suggestWithOwnCursors() throws Exception {
+            // Two users typing at the same time each continue from their own previous prefix.
+            String[] first = {"s", "st", "sta", "star"}, second = {"g", "go", "god", "godf"};
+            MediaLibrary.Suggestions a = null, b = null;
+            for(int i = 0; i < first.length; i++) {
+                a = library.suggest(first[i], 10, a);
+                b = library.suggest(second[i], 10, b);
+                assertEquals(first[i], a.cursor().getPrefix());
+                assertEquals(library.suggest(first[i], 10), a.media());
+                assertEquals(library.suggest(second[i], 10), b.media());
+            }
+
+            // Suggestions from another library are not continued from, even if both tries were modified as many times.
+            Media godfather = library.suggest("godfather", 1).get(0), war = library.suggest("war", 1).get(0);
+            MediaLibrary other = MediaLibrary.readMediaLibrary("./Data/film.txt", "./Data/serier.txt");
+            library.remove(war);
+            library.add(war);
+            other.remove(godfather);
+            other.remove(war);
+            MediaLibrary.Suggestions godf = library.suggest("godf", 10, null);
+            assertTrue(godf.media().contains(godfather));
+            assertEquals(other.suggest("godfa", 10), other.suggest("godfa", 10, godf).media());
+        }
+
+        @Test
+        void fuzzySearch() {
+            List<Media> exact = library.sortByFuzzySearch("godfather", 0, 100);
+            assertFalse(exact.isEmpty());
+            exact.forEach(m -> assertTrue(List.of(m.title.toLowerCase().split(" ")).contains("godfather")));
+
+            // Two letters swapped is two edits.
+            assertEquals(List.of(), library.sortByFuzzySearch("godfahter", 1, 100));
+            assertEquals(exact, library.sortByFuzzySearch("godfahter", 2, 100));
+
+            // Every query word must match, and the closest media come first.
+            List<Media> both = library.sortByFuzzySearch("Star wras", 2, 100);
+            assertEquals("Star Wars", both.get(0).title);
+            List<Media> all = library.sortBy(MediaSorting.SortBy.DEFAULT, MediaSorting.SortOrder.DEFAULT);
+            long expected = all.stream()
+                               .map(m -> List.of(m.title.toLowerCase().split(" ")))
+                               .filter(words -> words.stream().anyMatch(w -> TitleVocabulary.calcEditDistance("star", w) <= 2)
+                                             && words.stream().anyMatch(w -> TitleVocabulary.calcEditDistance("wras", w) <= 2))
+                               .count();
+            assertEquals(expected, both.size());
+        }
+
+        @Test
+        void searchCursorPages() {
+            List<Media> expected = library.sortBySearch("the godfather", 50, true, false);
+            MediaSorting.SearchCursor cursor = library.startSearch("the godfather", true, false);
+
+            List<Media> pages = new ArrayList<>();
+            for(int page = 0; page < 5; page++)
+                pages.addAll(cursor.next(10));
+            assertEquals(expected, pages);
+            assertEquals(library.sortBy(MediaSorting.SortBy.DEFAULT, MediaSorting.SortOrder.DEFAULT).size() - 50, cursor.remaining());
+
+            library.remove(expected.get(0));
+            assertTrue(cursor.isExpired());
+            assertThrows(IllegalStateException.class, () -> cursor.next(10));
+        }
+
+        @Test
+        void searchAsyncCoalesced() throws Exception {
+            List<Media> expected = library.sortBySearch("star wars", 20, false, false);
+
+            List<CompletableFuture<List<Media>>> searches = new ArrayList<>();
+            for(int i = 0; i < 16; i++)
+                searches.add(library.searchAsync(i % 2 == 0 ? "star wars" : "Star Wars", 20));
+            for(CompletableFuture<List<Media>> search : searches)
+                assertEquals(expected, search.get());
+
+            // Coalesced searches share the cached title scores, so each query word is scored at most once.
+            assertEquals(2, library.getSearchCacheStatistics().misses());
+        }
+
+        @Test
+        void searchBatchAgrees() {
+            List<String> queries = List.of("godfather", "star wars", "the dark knight", "drama", "godfather", "x");
+            List<List<Media>> batch = library.sortBySearchBatch(queries, 25);
+
+            assertEquals(queries.size(), batch.size());
+            for(int i = 0; i < queries.size(); i++)
+                assertEquals(library.sortBySearch(queries.get(i), 25, false, false), batch.get(i));
+        }
+
+        @Test
+        void searchLargeBatch() {
+            // Every prefix of every title word, and pairs of words, so the batch has thousands of queries.
+            List<String> queries = new ArrayList<>();
+            List<Media> all = library.sortBy(MediaSorting.SortBy.TITLE, MediaSorting.SortOrder.DEFAULT);
+            for(Media media : all) {
+                String[] words = TitleIndex.getTitleWords(media.title);
+                for(int i = 0; i < words.length; i++) {
+                    for(int length = 1; length <= words[i].length(); length++)
+                        queries.add(words[i].substring(0, length));
+                    if(i > 0) queries.add(words[i - 1] + " " + words[i]);
+                }
+            }
+            assertTrue(queries.size() > 2000);
+
+            library.sortBySearch("godfather", 10, true, false);
+            List<List<Media>> batch = library.sortBySearchBatch(queries, 10);
+            assertEquals(queries.size(), batch.size());
+            for(int i = 0; i < queries.size(); i += 7)
+                assertEquals(library.sortBySearch(queries.get(i), 10, false, false), batch.get(i));
+
+            // The batch leaves the search cache as it was.
+            assertEquals(1, library.getSearchCacheStatistics().entries());
+            assertEquals(1, library.getSearchCacheStatistics().misses());
+        }
+
+        @Test
+        void boundedSearchAgrees() {
+            MediaStore media = new MediaStore(library.sortBy(MediaSorting.SortBy.DEFAULT, MediaSorting.SortOrder.DEFAULT));
+            TitleIndex index = new TitleIndex(media);
+            for(String query : new String[] {"godfather", "star wars", "the", "drama war", "a", "zzz", ""}) {
+                String[] queries = query.split(" ");
+                for(int count : new int[] {1, 10, 20, 100})
+                    assertEquals(MediaSorting.sortBySearchQueries(media, index, queries, null, count, false, MediaSorting.SearchMode.SEQUENTIAL),
+                                 MediaSorting.sortBySearchQueriesBounded(media, index, queries, count));
+            }
+        }
+
+        @Test
+        void ratingBoost() {
+            MediaStore media = new MediaStore(library.sortBy(MediaSorting.SortBy.DEFAULT, MediaSorting.SortOrder.DEFAULT));
+            TitleIndex index = new TitleIndex(media);
+            String[] queries = "the war".split(" ");
+            for(float weight : new float[] {0, 0.5f, 1, 3}) {
+                List<Media> full = MediaSorting.sortBySearchQueries(media, index, queries, null, 30, false, MediaSorting.SearchMode.SEQUENTIAL, weight);
+                assertEquals(full, MediaSorting.sortBySearchQueriesBounded(media, index, queries, 30, weight));
+            }
+
+            // A heavy enough weight sorts by rating, as every score is dwarfed by the ratings.
+            List<Media> byRating = MediaSorting.sortBySearchQueries(media, index, queries, null, 30, false, MediaSorting.SearchMode.SEQUENTIAL, 1000);
+            // The bounds of the many candidates are spread over a wide range, so the bounded search compares them instead of counting them.
+            assertEquals(byRating, MediaSorting.sortBySearchQueriesBounded(media, index, queries, 30, 1000));
+            for(int i = 1; i < byRating.size(); i++)
+                assertTrue(byRating.get(i - 1).rating >= byRating.get(i).rating);
+
+            library.setRatingWeight(1);
+            assertEquals(MediaSorting.sortBySearchQueries(media, index, queries, null, 30, false, MediaSorting.SearchMode.SEQUENTIAL, 1),
+                         library.sortBySearch("the war", 30, true, false));
+            assertThrows(IllegalArgumentException.class, () -> library.setRatingWeight(-1));
+        }
+
+        @Test
+        void extremeRatingWeight() {
+            MediaStore media = new MediaStore(library.sortBy(MediaSorting.SortBy.DEFAULT, MediaSorting.SortOrder.DEFAULT));
+            TitleIndex index = new TitleIndex(media);
+            String[] queries = "godfather".split(" ");
+            List<Media> byRating = MediaSorting.sortBySearchQueries(media, index, queries, null, 30, false, MediaSorting.SearchMode.SEQUENTIAL, MediaSorting.maxRatingWeight);
+
+            // Heavier weights are treated as the maximum weight, instead of overflowing the scores.
+            for(float weight : new float[] {1e9f, Float.MAX_VALUE, Float.POSITIVE_INFINITY}) {
+                assertEquals(byRating, MediaSorting.sortBySearchQueries(media, index, queries, null, 30, false, MediaSorting.SearchMode.SEQUENTIAL, weight));
+                assertEquals(byRating, MediaSorting.sortBySearchQueriesBounded(media, index, queries, 30, weight));
+            }
+            // The results are sorted by rating, and among equally rated media, the exact match comes first.
+            for(int i = 1; i < byRating.size(); i++)
+                assertTrue(byRating.get(i - 1).rating >= byRating.get(i).rating);
+            assertEquals("The Godfather", byRating.stream().filter(m -> m.rating == 9.2f).findFirst().get().title);
+
+            for(float weight : new float[] {Float.POSITIVE_INFINITY, Float.NaN, MediaSorting.maxRatingWeight * 2})
+                assertThrows(IllegalArgumentException.class, () -> library.setRatingWeight(weight));
+            library.setRatingWeight(MediaSorting.maxRatingWeight);
+        }
+
+        @Test
+        void sortIndexUpdatedOnAddAndRemove() {
+            List<Media> all = library.sortBy(MediaSorting.SortBy.DEFAULT, MediaSorting.SortOrder.DEFAULT);
+            MediaStore media = new MediaStore(all);
+            for(int i = 0; i < all.size(); i += 3)
+                library.remove(all.get(i));
+            for(int i = 0; i < all.size(); i += 6)
+                library.add(all.get(i));
+
+            MediaStore expected = new MediaStore(library.sortBy(MediaSorting.SortBy.TITLE, MediaSorting.SortOrder.DEFAULT));
+            for(MediaSorting.SortBy sortBy : MediaSorting.SortBy.values()) {
+                for(MediaSorting.SortOrder sortOrder : MediaSorting.SortOrder.values()) {
+                    List<Media> sorted = library.sortBy(sortBy, sortOrder);
+                    List<Media> resorted = MediaSorting.sortMedia(expected, sortBy, sortOrder);
+                    assertEquals(expected.size(), sorted.size());
+                    assertEquals(Set.copyOf(resorted), Set.copyOf(sorted));
+                    for(int i = 0; i < sorted.size(); i++)
+                        assertEquals(0, MediaSorting.getComparator(media, sortBy).compare(media.getId(sorted.get(i)), media.getId(resorted.get(i))));
+                }
+            }
+        }
+
+        @Test
+        void sortIndexIgnoresRepeatedAddAndRemove() {
+            MediaStore media = new MediaStore(library.sortBy(MediaSorting.SortBy.DEFAULT, MediaSorting.SortOrder.DEFAULT));
+            SortIndex index = new SortIndex(media);
+            int size = index.size();
+            index.add(0);
+            assertEquals(size, index.size());
+            index.remove(0);
+            index.remove(0);
+            assertEquals(size - 1, index.size());
+            for(MediaSorting.SortBy sortBy : MediaSorting.SortBy.values())
+                assertFalse(index.sortMedia(sortBy, MediaSorting.SortOrder.DEFAULT).contains(media.get(0)));
+            index.add(0);
+            index.add(0);
+            assertEquals(size, index.size());
+            for(MediaSorting.SortBy sortBy : MediaSorting.SortBy.values())
+                assertEquals(media.size(), Set.copyOf(index.sortMedia(sortBy, MediaSorting.SortOrder.REVERSE)).size());
+        }
+
+        @Test
+        void sortByPages() {
+            MediaStore media = new MediaStore(library.sortBy(MediaSorting.SortBy.DEFAULT, MediaSorting.SortOrder.DEFAULT));
+            for(MediaSorting.SortOrder sortOrder : MediaSorting.SortOrder.values()) {
+                List<Media> all = library.sortBy(MediaSorting.SortBy.DEFAULT, sortOrder);
+                for(int offset : new int[] {0, 7, 100, all.size() - 3, all.size(), all.size() + 5}) {
+                    List<Media> expected = all.subList(Math.min(offset, all.size()), Math.min(offset + 25, all.size()));
+                    assertEquals(expected, library.sortBy(MediaSorting.SortBy.DEFAULT, sortOrder, offset, 25));
+                    assertEquals(expected, MediaSorting.sortMedia(media, MediaSorting.SortBy.DEFAULT, sortOrder, offset, 25));
+                }
+            }
+            assertThrows(IllegalArgumentException.class, () -> library.sortBy(MediaSorting.SortBy.RATING, MediaSorting.SortOrder.DEFAULT, -1, 10));
+        }
+
+        @Test
+        void filterByYearAndRating() {
+            MediaFilter filter = MediaFilter.all.releasedBetween(1990, 1999).ratedBetween(8, 10);
+            List<Media> all = library.sortBy(MediaSorting.SortBy.RATING, MediaSorting.SortOrder.DEFAULT);
+            List<Media> expected = all.stream()
+                                      .filter(m -> m.releaseYear >= 1990 && m.releaseYear <= 1999 && m.rating >= 8)
+                                      .collect(Collectors.toList());
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, library.sortBy(filter, MediaSorting.SortBy.RATING, MediaSorting.SortOrder.DEFAULT, 0, all.size()));
+            assertEquals(expected.subList(2, 5), library.sortBy(filter, MediaSorting.SortBy.RATING, MediaSorting.SortOrder.DEFAULT, 2, 3));
+
+            List<Media> searched = library.sortBySearch("the", filter, 10);
+            List<Media> expectedSearched = library.sortBySearch("the", true, false).stream()
+                                                  .filter(expected::contains)
+                                                  .limit(10)
+                                                  .collect(Collectors.toList());
+            assertEquals(expectedSearched, searched);
+            assertThrows(IllegalArgumentException.class, () -> MediaFilter.all.releasedBetween(2000, 1999));
+        }
+
+        @Test
+        void filterByCategories() {
+            MediaFilter filter = MediaFilter.all.withCategories(Category.Drama).withAnyCategory(Category.Crime, Category.War).withoutCategories(Category.Romance);
+            List<Media> expected = library.sortBy(MediaSorting.SortBy.TITLE, MediaSorting.SortOrder.DEFAULT).stream()
+                                          .filter(m -> m.hasCategory(Category.Drama) && !m.hasCategory(Category.Romance))
+                                          .filter(m -> m.hasCategory(Category.Crime) || m.hasCategory(Category.War))
+                                          .collect(Collectors.toList());
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, library.sortBy(filter, MediaSorting.SortBy.TITLE, MediaSorting.SortOrder.DEFAULT, 0, expected.size() + 1));
+
+            Media removed = expected.get(0);
+            library.remove(removed);
+            assertEquals(expected.subList(1, expected.size()), library.sortBy(filter, MediaSorting.SortBy.TITLE, MediaSorting.SortOrder.DEFAULT, 0, expected.size()));
+        }
+
+        @Test
+        void filterWithoutNarrowPart() {
+            // None of these filters has a part accepting fewer media than the whole library, so every media must be tested.
+            Category[] allCategories = Category.values();
+            List<MediaFilter> filters = List.of(MediaFilter.all.withoutCategories(Category.Romance),
+                                                MediaFilter.all.releasedBetween(1000, 3000).withoutCategories(Category.Drama),
+                                                MediaFilter.all.withAnyCategory(allCategories).withoutCategories(Category.Drama));
+            List<Media> all = library.sortBy(MediaSorting.SortBy.TITLE, MediaSorting.SortOrder.DEFAULT);
+            List<Predicate<Media>> expected = List.of(m -> !m.hasCategory(Category.Romance),
+                                                      m -> !m.hasCategory(Category.Drama),
+                                                      m -> !m.hasCategory(Category.Drama));
+            for(int i = 0; i < filters.size(); i++) {
+                List<Media> accepted = all.stream().filter(expected.get(i)).collect(Collectors.toList());
+                assertTrue(accepted.size() < all.size());
+                assertEquals(accepted, library.sortBy(filters.get(i), MediaSorting.SortBy.TITLE, MediaSorting.SortOrder.DEFAULT, 0, all.size()));
+                library.sortBySearch("the", filters.get(i), all.size()).forEach(m -> assertTrue(accepted.contains(m)));
+            }
+        }
+
+        @Test
+        void bitmapOperations() {
+            IdBitmap a = new IdBitmap(), b = new IdBitmap();
+            BitSet expectedA = new BitSet(), expectedB = new BitSet();
+            Random random = new Random(21);
+            for(int i = 0; i < 20000; i++) {
+                // Dense IDs in the first container, and sparse IDs in the later ones.
+                int id = i < 10000 ? random.nextInt(1 << 14) : random.nextInt(1 << 20);
+                a.add(id); expectedA.set(id);
+                if(i % 3 == 0) { b.add(id ^ 1); expectedB.set(id ^ 1); }
+            }
+            for(int i = 0; i < 5000; i++) {
+                int id = random.nextInt(1 << 14);
+                a.remove(id); expectedA.clear(id);
+            }
+
+            BitSet and = (BitSet) expectedA.clone(); and.and(expectedB);
+            BitSet or = (BitSet) expectedA.clone(); or.or(expectedB);
+            BitSet andNot = (BitSet) expectedA.clone(); andNot.andNot(expectedB);
+            assertArrayEquals(expectedA.stream().toArray(), a.stream().toArray());
+            assertEquals(expectedA.cardinality(), a.cardinality());
+            assertArrayEquals(and.stream().toArray(), IdBitmap.and(a, b).stream().toArray());
+            assertArrayEquals(or.stream().toArray(), IdBitmap.or(a, b).stream().toArray());
+            assertArrayEquals(andNot.stream().toArray(), IdBitmap.andNot(a, b).stream().toArray());
+        }
+
+        @Test
+        void facetsCountAcceptedMedia() {
+            MediaFilter filter = MediaFilter.all.ratedBetween(7, 10);
+            Facets.Result result = library.sortBySearchWithFacets("star", filter, 5);
+            assertEquals(library.sortBySearch("star", filter, 5), result.media());
+
+            List<Media> accepted = library.sortBy(MediaSorting.SortBy.DEFAULT, MediaSorting.SortOrder.DEFAULT).stream()
+                                          .filter(m -> m.rating >= 7)
+                                          .collect(Collectors.toList());
+            for(Facets facets : List.of(result.facets(), library.sortByWithFacets(filter, MediaSorting.SortBy.TITLE, MediaSorting.SortOrder.DEFAULT, 0, 10).facets())) {
+                assertEquals(accepted.size(), facets.getTotal());
+                for(Category category : Category.values())
+                    assertEquals(accepted.stream().filter(m -> m.hasCategory(category)).count(), facets.getCount(category));
+                for(int decade : facets.getDecades())
+                    assertEquals(accepted.stream().filter(m -> m.releaseYear / 10 * 10 == decade).count(), facets.getDecadeCount(decade));
+                assertEquals(accepted.size(), IntStream.of(facets.getDecades()).map(facets::getDecadeCount).sum());
+                assertEquals(accepted.stream().filter(m -> m.rating >= 8 && m.rating < 9).count(), facets.getRatingCount(8));
+                assertEquals(0, facets.getRatingCount(6));
+            }
+        }
+
+        @Test
+        void plannerScoresFewCandidates() {
+            MediaFilter filter = MediaFilter.all.withCategories(Category.Western).releasedBetween(1960, 1969);
+            MediaStore media = new MediaStore(library.sortBy(MediaSorting.SortBy.DEFAULT, MediaSorting.SortOrder.DEFAULT));
+            FilterPlanner.Plan plan = FilterPlanner.choose(media, new SortIndex(media), new CategoryIndex(media), filter);
+            assertNotEquals(FilterPlanner.Source.ALL, plan.source());
+            assertTrue(plan.estimate() < media.size() / 10);
+
+            for(String query : new String[] {"western", "the good the bad"}) {
+                List<Media> expected = library.sortBySearch(query, true, false).stream()
+                                              .filter(m -> m.hasCategory(Category.Western) && m.releaseYear >= 1960 && m.releaseYear <= 1969)
+                                              .limit(5)
+                                              .collect(Collectors.toList());
+                assertFalse(expected.isEmpty());
+                assertEquals(expected, library.sortBySearch(query, filter, 5));
+            }
+        }
+
+        @Test
+        void packedSortAgreesWithComparator() {
+            List<Media> all = library.sortBy(MediaSorting.SortBy.TITLE, MediaSorting.SortOrder.DEFAULT);
+            MediaStore media = new MediaStore(all);
+
+            for(MediaSorting.SortBy sortBy : new MediaSorting.SortBy[] {MediaSorting.SortBy.RELEASE_YEAR, MediaSorting.SortBy.RATING}) {
+                MediaSorting.IdComparator comparator = MediaSorting.getComparator(media, sortBy);
+                int[] expected = media.ids().boxed()
+                                      .sorted((a, b) -> comparator.compare(a, b) != 0 ? comparator.compare(a, b) : Integer.compare(a, b))
+                                      .mapToInt(Integer::intValue)
+                                      .toArray();
+                assertArrayEquals(expected, MediaSorting.sortIds(media, sortBy));
+
+                for(MediaSorting.SortOrder sortOrder : MediaSorting.SortOrder.values()) {
+                    List<Media> sorted = MediaSorting.sortMedia(all, sortBy, sortOrder);
+                    for(int i = 1; i < sorted.size(); i++) {
+                        int comparison = comparator.compare(media.getId(sorted.get(i - 1)), media.getId(sorted.get(i)));
+                        assertTrue(sortOrder == MediaSorting.SortOrder.DEFAULT ? comparison <= 0 : comparison >= 0);
+                    }
+                }
+            }
+        }
+
+    }
 }
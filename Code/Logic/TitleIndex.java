@@ -0,0 +1,208 @@
+package Code.Logic;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import Code.Data.MediaStore;
+
+/** An inverted index over the words in the titles of media.
+ * Maps every pair of neighbouring characters in a lowercase title word to the IDs of the media whose titles contain that pair.
+ * Could be visualized like this:
+ * <p> {@code Map: character pair -> (Sorted array: media ID)}.
+ * <p> Used to only score the titles that share at least one character pair with a query,
+ * instead of scoring every title in the library. See {@link #getCandidates(String)}.
+ * <p> Queries of a single character have no character pairs,
+ * so the single characters of the title words are indexed as well.
+ * <p> Also stores the {@link WordSignature} of every title word, see {@link #getSignatures(int)}.
+ * <p> The media are identified by their IDs in a {@link MediaStore}.
+ * <p><i> The index should be updated whenever the media library is modified.</i>
+ */
+public class TitleIndex {
+
+    /** A sorted array of media IDs, which can grow. */
+    static final class Postings {
+        int[] ids = new int[4];
+        int size = 0;
+
+        void add(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if(index >= 0) return;
+            index = -index - 1;
+            if(size == ids.length)
+                ids = Arrays.copyOf(ids, size * 2);
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = id;
+            size++;
+        }
+
+        void remove(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if(index < 0) return;
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+        }
+    }
+
+    /** Maps from a character pair (see {@link #pair(char, char)}) to the IDs of the media containing it. */
+    private final Map<Integer, Postings> pairIndex = new HashMap<>();
+
+    /** Maps from a single character to the IDs of the media containing it. */
+    private final Map<Character, Postings> charIndex = new HashMap<>();
+
+    /** The signatures of the title words of the media, indexed by ID. */
+    private WordSignature[][] signatures = new WordSignature[16][];
+
+    /** The most distinct characters and the most distinct character pairs of any title word, indexed by ID.
+     * Used to bound the score of a title without scoring it, see {@link #calcSearchScoreBound(int, WordSignature)}.
+     */
+    private int[] maxChars = new int[16];
+    private int[] maxPairs = new int[16];
+
+    /** Creates an empty index. */
+    public TitleIndex() {}
+
+    /** Creates an index containing all the media in the given store.
+     * @param store The media to index.
+     */
+    public TitleIndex(MediaStore store) {
+        store.ids().forEach(id -> add(id, store.getTitle(id)));
+    }
+
+    /** Splits the given title into lowercase words.
+     * This is how titles are split everywhere they are searched in.
+     * @param title The title to split.
+     * @return The lowercase words of the title.
+     */
+    public static String[] getTitleWords(String title) {
+        return title.toLowerCase().split(" ");
+    }
+
+    /** Packs two characters into a single int, so character pairs can be stored without allocating objects.
+     * @param a The first character.
+     * @param b The second character.
+     * @return The packed character pair.
+     */
+    static int pair(char a, char b) {
+        return a << 16 | b;
+    }
+
+    /** Adds the media with the given title to the index.
+     * @param id The ID of the media.
+     * @param title The title of the media.
+     */
+    public void add(int id, String title) {
+        String[] words = getTitleWords(title);
+        if(id >= signatures.length) {
+            signatures = Arrays.copyOf(signatures, Math.max(id + 1, signatures.length * 2));
+            maxChars = Arrays.copyOf(maxChars, signatures.length);
+            maxPairs = Arrays.copyOf(maxPairs, signatures.length);
+        }
+        signatures[id] = Stream.of(words).map(WordSignature::of).toArray(WordSignature[]::new);
+        maxChars[id] = Stream.of(signatures[id]).mapToInt(WordSignature::countChars).max().orElse(0);
+        maxPairs[id] = Stream.of(signatures[id]).mapToInt(w -> w.pairs.length).max().orElse(0);
+
+        for(String word : words) {
+            for(int i = 0; i < word.length(); i++) {
+                charIndex.computeIfAbsent(word.charAt(i), c -> new Postings()).add(id);
+                if(i > 0)
+                    pairIndex.computeIfAbsent(pair(word.charAt(i-1), word.charAt(i)), p -> new Postings()).add(id);
+            }
+        }
+    }
+
+    /** Removes the media with the given title from the index.
+     * @param id The ID of the media.
+     * @param title The title of the media.
+     */
+    public void remove(int id, String title) {
+        signatures[id] = null;
+
+        for(String word : getTitleWords(title)) {
+            for(int i = 0; i < word.length(); i++) {
+                removeFrom(charIndex, word.charAt(i), id);
+                if(i > 0)
+                    removeFrom(pairIndex, pair(word.charAt(i-1), word.charAt(i)), id);
+            }
+        }
+    }
+
+    /** Removes the ID from the postings mapped to by the key, and removes the postings if they become empty. */
+    private static <K> void removeFrom(Map<K, Postings> index, K key, int id) {
+        Postings postings = index.get(key);
+        if(postings == null) return;
+        postings.remove(id);
+        if(postings.size == 0) index.remove(key);
+    }
+
+    /** Clears the index. */
+    public void clear() {
+        pairIndex.clear();
+        charIndex.clear();
+        Arrays.fill(signatures, null);
+    }
+
+    /** Returns the signatures of the title words of the media with the given ID.
+     * @param id The ID of the media. <i>Must be in the index.</i>
+     * @return The signatures of the title words, in the order of {@link #getTitleWords(String)}.
+     */
+    WordSignature[] getSignatures(int id) {
+        return signatures[id];
+    }
+
+    /** Returns an upper bound of the title score of the media with the given ID.
+     * The bound is at least {@link MediaSorting#calcSearchScore(WordSignature, WordSignature)} of every title word,
+     * since a word can at most get the points for the length and the first and last characters,
+     * and cannot share more distinct characters or pairs than either word has.
+     * @param id The ID of the media. <i>Must be in the index.</i>
+     * @param query The signature of the query word.
+     * @return The upper bound of the title score.
+     */
+    int calcSearchScoreBound(int id, WordSignature query) {
+        if(query.length == 0)
+            return 0;
+        return 2 + 3 + 3 + Math.min(query.countChars(), maxChars[id]) + Math.min(query.pairs.length, maxPairs[id]);
+    }
+
+    /** Returns whether a title is one of the candidates for the query, see {@link #getCandidates(String)}.
+     * @param query The signature of the query word.
+     * @param title The signatures of the title words.
+     * @return Whether the title shares a character pair, or the character of a single character query.
+     */
+    static boolean isCandidate(WordSignature query, WordSignature[] title) {
+        for(WordSignature word : title) {
+            if(query.length == 1 ? query.countSharedChars(word) > 0 : query.countSharedPairs(word) > 0)
+                return true;
+        }
+        return false;
+    }
+
+    /** Returns the IDs of the media whose titles share at least one character pair with the query.
+     * If the query is a single character, returns the IDs of the media whose titles contain that character.
+     * <p> Media not returned would only score on shared single characters, the length and the first and last characters of their title words,
+     * but are treated as not matching the query at all. <i>Searches therefore rank them lower than if every title was scored.</i>
+     * @param query The query to find candidates for. <i>Should be single lowercase word</i>.
+     * @return The IDs of the candidate media, sorted.
+     */
+    public int[] getCandidates(String query) {
+        if(query.isEmpty())
+            return new int[0];
+
+        if(query.length() == 1) {
+            Postings postings = charIndex.get(query.charAt(0));
+            return postings == null ? new int[0] : Arrays.copyOf(postings.ids, postings.size);
+        }
+
+        // Marks the IDs in the postings of every pair of the query, which also sorts them.
+        BitSet candidates = new BitSet(signatures.length);
+        for(int i = 1; i < query.length(); i++) {
+            Postings postings = pairIndex.get(pair(query.charAt(i-1), query.charAt(i)));
+            if(postings == null) continue;
+            for(int j = 0; j < postings.size; j++)
+                candidates.set(postings.ids[j]);
+        }
+        return candidates.stream().toArray();
+    }
+
+}
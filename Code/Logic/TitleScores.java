@@ -0,0 +1,101 @@
+package Code.Logic;
+import java.util.Arrays;
+
+/** The title search scores of a single query word.
+ * <p> Stores the IDs of the scored media in a sorted array, and their scores in a parallel array.
+ * Media that are not candidates for the query have no score, and are not stored at all.
+ * This keeps cached results compact, and summing them into the scores of a search is a linear scan.
+ * See {@link #addTo(int[], int, int)}.
+ */
+final class TitleScores {
+
+    private int[] ids;
+    private int[] scores;
+    private int size;
+
+    /** Creates title scores from the given arrays, which are used directly.
+     * @param ids The IDs of the scored media, sorted.
+     * @param scores The score of each media, in the same order as the IDs.
+     */
+    TitleScores(int[] ids, int[] scores) {
+        this.ids = ids;
+        this.scores = scores;
+        this.size = ids.length;
+    }
+
+    /** Returns the number of scored media.
+     * @return The number of scored media.
+     */
+    int size() {
+        return size;
+    }
+
+    /** Returns the ID at the given index, in the sorted order of the IDs.
+     * @param index The index. <i>Must be less than {@link #size()}.</i>
+     * @return The ID.
+     */
+    int getId(int index) {
+        return ids[index];
+    }
+
+    /** Returns the score at the given index, in the sorted order of the IDs.
+     * @param index The index. <i>Must be less than {@link #size()}.</i>
+     * @return The score of the media with the ID at the index.
+     */
+    int getScore(int index) {
+        return scores[index];
+    }
+
+    /** Sets the score of the media with the given ID, adding it if it has no score.
+     * @param id The ID of the media.
+     * @param score The score.
+     */
+    void put(int id, int score) {
+        int index = Arrays.binarySearch(ids, 0, size, id);
+        if(index >= 0) {
+            scores[index] = score;
+            return;
+        }
+
+        index = -index - 1;
+        if(size == ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(4, size * 2));
+            scores = Arrays.copyOf(scores, ids.length);
+        }
+        System.arraycopy(ids, index, ids, index + 1, size - index);
+        System.arraycopy(scores, index, scores, index + 1, size - index);
+        ids[index] = id;
+        scores[index] = score;
+        size++;
+    }
+
+    /** Removes the score of the media with the given ID.
+     * @param id The ID of the media.
+     * @return Whether the media had a score.
+     */
+    boolean remove(int id) {
+        int index = Arrays.binarySearch(ids, 0, size, id);
+        if(index < 0)
+            return false;
+
+        System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+        System.arraycopy(scores, index + 1, scores, index, size - index - 1);
+        size--;
+        return true;
+    }
+
+    /** Adds the scores of the media with IDs in the given range to the array of scores indexed by ID.
+     * Since the IDs are sorted, only the scores in the range are visited.
+     * @param target The scores indexed by ID.
+     * @param from The first ID in the range.
+     * @param to One more than the last ID in the range.
+     */
+    void addTo(int[] target, int from, int to) {
+        int index = Arrays.binarySearch(ids, 0, size, from);
+        if(index < 0) index = -index - 1;
+
+        for(; index < size && ids[index] < to; index++)
+            target[ids[index]] += scores[index];
+    }
+
+}
@@ -0,0 +1,304 @@
+package Code.Logic;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.stream.Stream;
+
+import Code.Data.MediaStore;
+import Code.Logic.MediaSorting.IdComparator;
+
+/** A compressed trie (radix tree) over the lowercase words in the titles of media, used to suggest media while typing.
+ * Every edge holds as many characters as possible, so a chain of nodes with a single child is stored as a single node.
+ * Could be visualized like this:
+ * <p> {@code Node: characters of the edge -> (Sorted array: media ID), (Children: Node)}.
+ * <p> All the words below a node start with the characters on the way to the node,
+ * so the media whose titles have a word starting with a prefix are the media below the node the prefix ends in.
+ * See {@link #suggest(Cursor, int)}.
+ * <p> Every node remembers its best media, which are only found again when a media below the node is added or removed.
+ * <p> The media are identified by their IDs in a {@link MediaStore}, and are ranked by rating.
+ * <p><i> The trie should be updated whenever the media library is modified.</i>
+ */
+public class TitleTrie {
+
+    private static final Node[] noChildren = new Node[0];
+
+    private static final class Node {
+        /** The characters on the edge into this node. */
+        String label;
+
+        /** The children, sorted by the first character of their labels. */
+        Node[] children = noChildren;
+
+        /** The IDs of the media that have the word ending at this node, or {@code null} if there are none. */
+        TitleIndex.Postings ids = null;
+
+        /** The best media below this node, or {@code null} if they are not found yet. */
+        volatile Best best = null;
+
+        Node(String label) {
+            this.label = label;
+        }
+
+        /** Returns the index of the child whose label starts with the character, or {@code -(insertion point) - 1}. */
+        int findChild(char c) {
+            int low = 0, high = children.length - 1;
+            while(low <= high) {
+                int middle = (low + high) >>> 1;
+                char label = children[middle].label.charAt(0);
+                if(label < c) low = middle + 1;
+                else if(label > c) high = middle - 1;
+                else return middle;
+            }
+            return -low - 1;
+        }
+    }
+
+    /** The best IDs below a node, sorted.
+     * If {@code complete} is {@code true}, these are all the IDs below the node.
+     */
+    private static record Best(int[] ids, boolean complete) {}
+
+    /** A position in the trie, reached by typing a prefix.
+     * <p> Typing another character continues from the node of the previous prefix, instead of from the root,
+     * see {@link TitleTrie#find(Cursor, String)}.
+     * <i>A cursor is only valid in the trie that created it, until the trie is modified.
+     * Otherwise the prefix is found from the root again.</i>
+     */
+    public static final class Cursor {
+        private final TitleTrie trie;
+        private final String prefix;
+        /** The node the prefix ends in, or {@code null} if no word starts with the prefix. */
+        private final Node node;
+        /** How many characters of the label of the node the prefix ends with. */
+        private final int matched;
+        private final int version;
+
+        private Cursor(TitleTrie trie, String prefix, Node node, int matched, int version) {
+            this.trie = trie;
+            this.prefix = prefix;
+            this.node = node;
+            this.matched = matched;
+            this.version = version;
+        }
+
+        /** Returns the prefix typed so far.
+         * @return The lowercase prefix.
+         */
+        public String getPrefix() {
+            return prefix;
+        }
+    }
+
+    private final Node root = new Node("");
+
+    /** Decides which media are the best suggestions. */
+    private final IdComparator rank;
+
+    /** Counts the modifications of the trie, so cursors from before a modification are not used. */
+    private int version = 0;
+
+    /** Creates a trie containing all the media in the given store.
+     * The media are ranked by rating, highest first, and then by title and year.
+     * @param store The media to add. <i>The trie should be kept in sync with the store.</i>
+     */
+    public TitleTrie(MediaStore store) {
+        this.rank = (a, b) -> MediaSorting.compareByRating(store, a, b);
+        store.ids().forEach(id -> add(id, store.getTitle(id)));
+    }
+
+    /** Returns the distinct lowercase words of the title. See {@link TitleIndex#getTitleWords(String)}. */
+    private static String[] getDistinctWords(String title) {
+        return Stream.of(TitleIndex.getTitleWords(title)).filter(w -> !w.isEmpty()).distinct().toArray(String[]::new);
+    }
+
+    /** Adds the media with the given title to the trie.
+     * @param id The ID of the media.
+     * @param title The title of the media.
+     */
+    public void add(int id, String title) {
+        version++;
+        for(String word : getDistinctWords(title))
+            addWord(id, word);
+    }
+
+    private void addWord(int id, String word) {
+        Node node = root;
+        int i = 0;
+        while(true) {
+            node.best = null;
+            if(i == word.length()) {
+                if(node.ids == null)
+                    node.ids = new TitleIndex.Postings();
+                node.ids.add(id);
+                return;
+            }
+
+            int index = node.findChild(word.charAt(i));
+            if(index < 0) {
+                // No child continues the word, so the rest of the word becomes a new child.
+                Node leaf = new Node(word.substring(i));
+                leaf.ids = new TitleIndex.Postings();
+                leaf.ids.add(id);
+                index = -index - 1;
+                Node[] children = Arrays.copyOf(node.children, node.children.length + 1);
+                System.arraycopy(children, index, children, index + 1, node.children.length - index);
+                children[index] = leaf;
+                node.children = children;
+                return;
+            }
+
+            Node child = node.children[index];
+            int common = 1;
+            while(common < child.label.length() && i + common < word.length() && child.label.charAt(common) == word.charAt(i + common))
+                common++;
+
+            if(common < child.label.length()) {
+                // The word leaves the label of the child, so the label is split at that point.
+                Node middle = new Node(child.label.substring(0, common));
+                child.label = child.label.substring(common);
+                middle.children = new Node[] {child};
+                node.children[index] = middle;
+                child = middle;
+            }
+
+            node = child;
+            i += common;
+        }
+    }
+
+    /** Removes the media with the given title from the trie.
+     * @param id The ID of the media.
+     * @param title The title of the media.
+     */
+    public void remove(int id, String title) {
+        version++;
+        for(String word : getDistinctWords(title))
+            removeWord(id, word);
+    }
+
+    private void removeWord(int id, String word) {
+        // The nodes on the way to the word, so empty nodes can be removed afterwards.
+        Node[] path = new Node[word.length() + 1];
+        int depth = 0;
+
+        Node node = root;
+        int i = 0;
+        while(true) {
+            path[depth++] = node;
+            node.best = null;
+            if(i == word.length())
+                break;
+
+            int index = node.findChild(word.charAt(i));
+            if(index < 0 || !word.startsWith(node.children[index].label, i))
+                return;
+            node = node.children[index];
+            i += node.label.length();
+        }
+
+        if(node.ids == null)
+            return;
+        node.ids.remove(id);
+        if(node.ids.size == 0)
+            node.ids = null;
+
+        // Removes the nodes that became empty, and merges nodes left with a single child into the child.
+        for(int d = depth - 1; d > 0; d--) {
+            Node current = path[d], parent = path[d - 1];
+            if(current.ids != null)
+                break;
+
+            if(current.children.length == 0) {
+                int index = parent.findChild(current.label.charAt(0));
+                Node[] children = new Node[parent.children.length - 1];
+                System.arraycopy(parent.children, 0, children, 0, index);
+                System.arraycopy(parent.children, index + 1, children, index, children.length - index);
+                parent.children = children;
+            }
+            else if(current.children.length == 1) {
+                Node child = current.children[0];
+                child.label = current.label + child.label;
+                parent.children[parent.findChild(child.label.charAt(0))] = child;
+                break;
+            }
+            else break;
+        }
+    }
+
+    /** Clears the trie. */
+    public void clear() {
+        version++;
+        root.children = noChildren;
+        root.ids = null;
+        root.best = null;
+    }
+
+    /** Finds the node the prefix ends in.
+     * If the prefix continues the prefix of the previous cursor, the search continues from the previous cursor,
+     * so typing a character only looks at the characters after the previous prefix.
+     * @param previous The cursor of the previous prefix, or {@code null}.
+     * @param prefix The prefix to find. <i>Should be a single lowercase word.</i>
+     * @return The cursor of the prefix.
+     */
+    public Cursor find(Cursor previous, String prefix) {
+        Node node = root;
+        int matched = 0;
+        int i = 0;
+        if(previous != null && previous.trie == this && previous.version == version && prefix.startsWith(previous.prefix)) {
+            if(previous.node == null)
+                return new Cursor(this, prefix, null, 0, version);
+            node = previous.node;
+            matched = previous.matched;
+            i = previous.prefix.length();
+        }
+
+        while(i < prefix.length()) {
+            if(matched == node.label.length()) {
+                int index = node.findChild(prefix.charAt(i));
+                if(index < 0)
+                    return new Cursor(this, prefix, null, 0, version);
+                node = node.children[index];
+                matched = 1;
+                i++;
+            }
+            else if(node.label.charAt(matched) == prefix.charAt(i)) {
+                matched++;
+                i++;
+            }
+            else return new Cursor(this, prefix, null, 0, version);
+        }
+        return new Cursor(this, prefix, node, matched, version);
+    }
+
+    /** Returns the best media whose titles have a word starting with the prefix of the cursor.
+     * <p> The best media below a node are remembered until a media below the node is added or removed,
+     * so suggesting the same prefix again, or a prefix ending in the same node, does not look at the media again.
+     * @param cursor The cursor of the prefix. <i>Must be found by {@link #find(Cursor, String)} since the last modification.</i>
+     * @param count The maximum number of media to return.
+     * @return The IDs of the best media, best first.
+     */
+    public int[] suggest(Cursor cursor, int count) {
+        if(cursor.node == null || count <= 0)
+            return new int[0];
+
+        Node node = cursor.node;
+        Best best = node.best;
+        if(best == null || (!best.complete() && best.ids().length < count)) {
+            BitSet ids = new BitSet();
+            collect(node, ids);
+            int[] first = MediaSorting.selectFirst(ids.stream(), rank, count);
+            best = new Best(first, first.length < count);
+            node.best = best;
+        }
+        return Arrays.copyOf(best.ids(), Math.min(count, best.ids().length));
+    }
+
+    /** Marks the IDs of all the media below the node. A media with several words below the node is marked once. */
+    private static void collect(Node node, BitSet ids) {
+        if(node.ids != null)
+            for(int i = 0; i < node.ids.size; i++)
+                ids.set(node.ids.ids[i]);
+        for(Node child : node.children)
+            collect(child, ids);
+    }
+
+}
@@ -0,0 +1,189 @@
+package Code.Logic;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import Code.Data.MediaStore;
+
+/** The vocabulary of the lowercase words in the titles of media, stored in a BK-tree.
+ * Used to find the words within an edit distance of a query word, without measuring the distance to every word.
+ * <p> Every node holds a word, and its children are stored by their edit distance to that word.
+ * Because the edit distance is a metric, only the children with a distance within {@code maxDistance}
+ * of the distance between the query and the word of the node can contain matching words.
+ * See {@link #findWithin(String, int)}.
+ * <p> The media are identified by their IDs in a {@link MediaStore}.
+ * <p><i> The vocabulary should be updated whenever the media library is modified.</i>
+ */
+public class TitleVocabulary {
+
+    private static final class Node {
+        final String word;
+
+        /** The IDs of the media whose titles contain the word. Can be empty, if the media was removed. */
+        final TitleIndex.Postings ids = new TitleIndex.Postings();
+
+        /** The children, and their edit distances to the word of this node, in the same order. */
+        int[] distances = new int[0];
+        Node[] children = new Node[0];
+
+        Node(String word) {
+            this.word = word;
+        }
+
+        Node getChild(int distance) {
+            for(int i = 0; i < distances.length; i++)
+                if(distances[i] == distance)
+                    return children[i];
+            return null;
+        }
+
+        void addChild(int distance, Node child) {
+            distances = Arrays.copyOf(distances, distances.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            distances[distances.length - 1] = distance;
+            children[children.length - 1] = child;
+        }
+    }
+
+    /** The root of the tree, or {@code null} if no words have been added. */
+    private Node root = null;
+
+    /** Maps from every word to its node, so words are found without walking the tree. */
+    private final Map<String, Node> nodes = new HashMap<>();
+
+    /** Creates an empty vocabulary. */
+    public TitleVocabulary() {}
+
+    /** Creates a vocabulary containing the title words of all the media in the given store.
+     * @param store The media to add.
+     */
+    public TitleVocabulary(MediaStore store) {
+        store.ids().forEach(id -> add(id, store.getTitle(id)));
+    }
+
+    /** Adds the title words of the media with the given title.
+     * @param id The ID of the media.
+     * @param title The title of the media.
+     */
+    public void add(int id, String title) {
+        for(String word : TitleIndex.getTitleWords(title)) {
+            if(word.isEmpty()) continue;
+            Node node = nodes.get(word);
+            if(node == null)
+                node = insert(word);
+            node.ids.add(id);
+        }
+    }
+
+    /** Inserts a new word into the tree. */
+    private Node insert(String word) {
+        Node node = new Node(word);
+        nodes.put(word, node);
+        if(root == null) {
+            root = node;
+            return node;
+        }
+
+        Node parent = root;
+        while(true) {
+            int distance = calcEditDistance(word, parent.word);
+            Node child = parent.getChild(distance);
+            if(child == null) {
+                parent.addChild(distance, node);
+                return node;
+            }
+            parent = child;
+        }
+    }
+
+    /** Removes the title words of the media with the given title.
+     * Words are left in the tree when no media contain them anymore, since removing a node would move its children.
+     * @param id The ID of the media.
+     * @param title The title of the media.
+     */
+    public void remove(int id, String title) {
+        for(String word : TitleIndex.getTitleWords(title)) {
+            Node node = nodes.get(word);
+            if(node != null)
+                node.ids.remove(id);
+        }
+    }
+
+    /** Clears the vocabulary. */
+    public void clear() {
+        root = null;
+        nodes.clear();
+    }
+
+    /** Returns the media whose titles contain a word within the given edit distance of the query.
+     * <p> Only the nodes that can contain matching words are visited,
+     * so the work depends on the number of similar words, not on the number of words.
+     * @param query The word to search for. <i>Should be single lowercase word</i>.
+     * @param maxDistance The maximum edit distance.
+     * @return The IDs of the media, with the smallest edit distance of their title words as their scores.
+     */
+    TitleScores findWithin(String query, int maxDistance) {
+        // Each match is packed as the ID followed by the distance, so sorting puts the smallest distance of an ID first.
+        long[] matches = new long[16];
+        int count = 0;
+
+        Node[] stack = new Node[16];
+        int size = 0;
+        if(root != null)
+            stack[size++] = root;
+        while(size > 0) {
+            Node node = stack[--size];
+            int distance = calcEditDistance(query, node.word);
+
+            if(distance <= maxDistance) {
+                if(count + node.ids.size > matches.length)
+                    matches = Arrays.copyOf(matches, Math.max(count + node.ids.size, matches.length * 2));
+                for(int i = 0; i < node.ids.size; i++)
+                    matches[count++] = (long) node.ids.ids[i] << 32 | distance;
+            }
+
+            for(int i = 0; i < node.children.length; i++) {
+                if(Math.abs(node.distances[i] - distance) > maxDistance) continue;
+                if(size == stack.length)
+                    stack = Arrays.copyOf(stack, size * 2);
+                stack[size++] = node.children[i];
+            }
+        }
+
+        Arrays.sort(matches, 0, count);
+        int[] ids = new int[count];
+        int[] distances = new int[count];
+        int unique = 0;
+        for(int i = 0; i < count; i++) {
+            int id = (int) (matches[i] >>> 32);
+            if(unique > 0 && ids[unique - 1] == id) continue;
+            ids[unique] = id;
+            distances[unique++] = (int) matches[i];
+        }
+        return new TitleScores(Arrays.copyOf(ids, unique), Arrays.copyOf(distances, unique));
+    }
+
+    /** Returns the Levenshtein distance between the words,
+     * which is the number of characters that must be inserted, deleted or replaced to turn one word into the other.
+     * @param a The first word.
+     * @param b The second word.
+     * @return The edit distance.
+     */
+    static int calcEditDistance(String a, String b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for(int j = 0; j <= b.length(); j++)
+            previous[j] = j;
+
+        for(int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for(int j = 1; j <= b.length(); j++) {
+                int replace = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(replace, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous; previous = current; current = swap;
+        }
+        return previous[b.length()];
+    }
+
+}
@@ -0,0 +1,107 @@
+package Code.Logic;
+import java.util.Arrays;
+
+/** The characters and character pairs of a single lowercase word,
+ * stored in primitive form so that two words can be scored without allocating anything.
+ * See {@link MediaSorting#calcSearchScore(WordSignature, WordSignature)}.
+ * <p> Signatures of title words are computed once, when the media is added to the {@link TitleIndex},
+ * and the signature of a query word is computed once per search.
+ * <p> Characters are stored as a bit mask, where bit {@code c} is set if the word contains character {@code c}.
+ * Since titles are mostly ASCII, the mask only covers the first 128 characters,
+ * and any other characters are stored in a sorted array instead.
+ * Character pairs are stored as a sorted array of packed pairs, see {@link TitleIndex#pair(char, char)}.
+ */
+final class WordSignature {
+
+    /** The signature of the empty string. */
+    static final WordSignature EMPTY = new WordSignature(0, '\0', '\0', 0, 0, new int[0], new int[0]);
+
+    final int length;
+    final char first;
+    final char last;
+
+    /** Bits 0-63 and 64-127 of the mask of ASCII characters in the word. */
+    final long charsLow, charsHigh;
+
+    /** The distinct non-ASCII characters in the word, sorted. */
+    final int[] otherChars;
+
+    /** The distinct packed character pairs in the word, sorted. */
+    final int[] pairs;
+
+    private WordSignature(int length, char first, char last, long charsLow, long charsHigh, int[] otherChars, int[] pairs) {
+        this.length = length;
+        this.first = first;
+        this.last = last;
+        this.charsLow = charsLow;
+        this.charsHigh = charsHigh;
+        this.otherChars = otherChars;
+        this.pairs = pairs;
+    }
+
+    /** Computes the signature of the given word.
+     * @param word The word. <i>Should be lowercase and contain no spaces.</i>
+     * @return The signature of the word.
+     */
+    static WordSignature of(String word) {
+        if(word.isEmpty())
+            return EMPTY;
+
+        long charsLow = 0, charsHigh = 0;
+        int[] otherChars = new int[word.length()];
+        int otherCount = 0;
+        int[] pairs = new int[word.length() - 1];
+
+        for(int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if(c < 64)       charsLow  |= 1L << c;
+            else if(c < 128) charsHigh |= 1L << (c - 64);
+            else             otherChars[otherCount++] = c;
+
+            if(i > 0)
+                pairs[i - 1] = TitleIndex.pair(word.charAt(i - 1), c);
+        }
+
+        return new WordSignature(word.length(), word.charAt(0), word.charAt(word.length() - 1),
+                                 charsLow, charsHigh, distinctSorted(otherChars, otherCount), distinctSorted(pairs, pairs.length));
+    }
+
+    /** Returns the first {@code length} values of the array sorted and without duplicates. */
+    private static int[] distinctSorted(int[] values, int length) {
+        Arrays.sort(values, 0, length);
+        int distinct = 0;
+        for(int i = 0; i < length; i++)
+            if(distinct == 0 || values[distinct - 1] != values[i])
+                values[distinct++] = values[i];
+        return distinct == values.length ? values : Arrays.copyOf(values, distinct);
+    }
+
+    /** Returns the number of distinct characters in the word. */
+    int countChars() {
+        return Long.bitCount(charsLow) + Long.bitCount(charsHigh) + otherChars.length;
+    }
+
+    /** Returns the number of distinct characters the two words share. */
+    int countSharedChars(WordSignature other) {
+        return Long.bitCount(charsLow & other.charsLow)
+             + Long.bitCount(charsHigh & other.charsHigh)
+             + countShared(otherChars, other.otherChars);
+    }
+
+    /** Returns the number of distinct character pairs the two words share. */
+    int countSharedPairs(WordSignature other) {
+        return countShared(pairs, other.pairs);
+    }
+
+    /** Returns the number of values in both of the sorted arrays. */
+    private static int countShared(int[] a, int[] b) {
+        int count = 0;
+        for(int i = 0, j = 0; i < a.length && j < b.length;) {
+            if(a[i] < b[j])      i++;
+            else if(a[i] > b[j]) j++;
+            else { count++; i++; j++; }
+        }
+        return count;
+    }
+
+}